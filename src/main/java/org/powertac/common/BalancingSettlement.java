@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reference settlement engine for the balancing market, for a single
+ * timeslot. Brokers are identified by index, and all data is held in
+ * primitive arrays that are reused from one timeslot to the next.
+ * <p>
+ * The total imbalance is covered by the brokers' balancing offers in
+ * merit order, and by the external regulation curves of BalancingMarket:
+ * up-regulation by x kWh is priced at pPlus + x * pPlusPrime, and
+ * down-regulation (x negative) at pMinus + x * pMinusPrime. The offers for
+ * the needed direction are sorted once, and a single sweep finds the
+ * marginal price at which offers plus external regulation cover the
+ * imbalance. Every broker then settles its imbalance, plus the regulation
+ * it provided, at that price; charges are positive when the broker is
+ * paid.</p>
+ * <p>
+ * Prices are per kWh. An up-regulation offer has positive kWh, and its
+ * price is what the broker asks to be paid; a down-regulation offer has
+ * negative kWh, and its price is what the broker will pay to take the
+ * energy.</p>
+ */
+public class BalancingSettlement
+{
+  static private Logger log =
+          Logger.getLogger(BalancingSettlement.class.getName());
+
+  private int brokerCount;
+  private double[] imbalance;
+  private double[] exercised;
+  private double[] charge;
+
+  // offers, in order of arrival
+  private int offerCount = 0;
+  private int[] offerBroker;
+  private double[] offerKWh;
+  private double[] offerPrice;
+
+  // merit order scratch space
+  private int[] order;
+  private int[] scratch;
+  private double[] cost;
+
+  // results
+  private double totalImbalance = 0.0;
+  private double externalRegulation = 0.0;
+  private double price = 0.0;
+
+  public BalancingSettlement (int brokerCount)
+  {
+    super();
+    this.brokerCount = brokerCount;
+    imbalance = new double[brokerCount];
+    exercised = new double[brokerCount];
+    charge = new double[brokerCount];
+    offerBroker = new int[16];
+    offerKWh = new double[16];
+    offerPrice = new double[16];
+  }
+
+  public int getBrokerCount ()
+  {
+    return brokerCount;
+  }
+
+  /**
+   * Clears imbalances, offers, and results for a new timeslot.
+   */
+  public void reset ()
+  {
+    Arrays.fill(imbalance, 0.0);
+    Arrays.fill(exercised, 0.0);
+    Arrays.fill(charge, 0.0);
+    offerCount = 0;
+    totalImbalance = 0.0;
+    externalRegulation = 0.0;
+    price = 0.0;
+  }
+
+  /**
+   * Sets a broker's imbalance in kWh, positive when the broker has a
+   * surplus.
+   */
+  public void setImbalance (int broker, double kWh)
+  {
+    imbalance[broker] = kWh;
+  }
+
+  /**
+   * Adds a balancing offer from a broker.
+   */
+  public void addOffer (int broker, double kWh, double price)
+  {
+    if (0.0 == kWh)
+      return;
+    if (offerCount == offerKWh.length) {
+      int size = offerCount * 2;
+      offerBroker = Arrays.copyOf(offerBroker, size);
+      offerKWh = Arrays.copyOf(offerKWh, size);
+      offerPrice = Arrays.copyOf(offerPrice, size);
+    }
+    offerBroker[offerCount] = broker;
+    offerKWh[offerCount] = kWh;
+    offerPrice[offerCount] = price;
+    offerCount += 1;
+  }
+
+  /**
+   * Settles the timeslot.
+   */
+  public void settle (double pPlus, double pPlusPrime,
+                      double pMinus, double pMinusPrime)
+  {
+    totalImbalance = 0.0;
+    for (int i = 0; i < brokerCount; i++) {
+      totalImbalance += imbalance[i];
+    }
+    Arrays.fill(exercised, 0.0);
+    externalRegulation = 0.0;
+    if (totalImbalance < 0.0) {
+      // short: buy up-regulation, cheapest first
+      price = sweep(true, -totalImbalance, pPlus, pPlusPrime);
+    }
+    else if (totalImbalance > 0.0) {
+      // long: sell down-regulation to the highest bidders first,
+      // by sweeping over negated prices
+      price = -sweep(false, totalImbalance, -pMinus, pMinusPrime);
+    }
+    else {
+      price = pPlus;
+    }
+    for (int i = 0; i < brokerCount; i++) {
+      charge[i] = (imbalance[i] + exercised[i]) * price;
+    }
+    log.debug("Settled imbalance " + totalImbalance + " at " + price
+              + ", external regulation " + externalRegulation);
+  }
+
+  // Dispatches offers in one direction in merit order, along with the
+  // external curve base + x * slope, until required kWh are covered.
+  // Costs are prices for up-regulation and negated prices for down.
+  // Returns the marginal cost.
+  private double sweep (boolean up, double required,
+                        double base, double slope)
+  {
+    int n = sortOffers(up);
+    double covered = 0.0;
+    for (int k = 0; k < n; k++) {
+      int offer = order[k];
+      double external = externalSupply(cost[k], base, slope);
+      if (covered + external >= required) {
+        // external regulation covers the rest below this offer's cost
+        return useExternal(required - covered, base, slope, up);
+      }
+      double kWh = Math.abs(offerKWh[offer]);
+      if (covered + kWh + external >= required) {
+        // this offer is marginal
+        double used = required - covered - external;
+        exercise(offer, used, up);
+        externalRegulation = up ? external : -external;
+        return cost[k];
+      }
+      exercise(offer, kWh, up);
+      covered += kWh;
+    }
+    return useExternal(required - covered, base, slope, up);
+  }
+
+  // external kWh available at or below the given cost
+  private double externalSupply (double atCost, double base, double slope)
+  {
+    if (atCost < base)
+      return 0.0;
+    if (slope <= 0.0)
+      return Double.POSITIVE_INFINITY;
+    return (atCost - base) / slope;
+  }
+
+  private double useExternal (double kWh, double base, double slope,
+                              boolean up)
+  {
+    externalRegulation = up ? kWh : -kWh;
+    return base + Math.max(0.0, slope) * kWh;
+  }
+
+  private void exercise (int offer, double kWh, boolean up)
+  {
+    exercised[offerBroker[offer]] += up ? kWh : -kWh;
+  }
+
+  // Sorts the offers in one direction by cost, stably, into order[] and
+  // cost[]. Returns the number of offers sorted.
+  private int sortOffers (boolean up)
+  {
+    if (null == order || order.length < offerCount) {
+      order = new int[offerKWh.length];
+      scratch = new int[offerKWh.length];
+      cost = new double[offerKWh.length];
+    }
+    int n = 0;
+    for (int i = 0; i < offerCount; i++) {
+      if ((offerKWh[i] > 0.0) == up)
+        order[n++] = i;
+    }
+    mergeSort(0, n);
+    for (int k = 0; k < n; k++) {
+      cost[k] = offerCost(order[k]);
+    }
+    return n;
+  }
+
+  private double offerCost (int offer)
+  {
+    return (offerKWh[offer] > 0.0) ? offerPrice[offer] : -offerPrice[offer];
+  }
+
+  // stable merge sort of order[from, to) by offer cost
+  private void mergeSort (int from, int to)
+  {
+    if (to - from < 2)
+      return;
+    int mid = (from + to) >>> 1;
+    mergeSort(from, mid);
+    mergeSort(mid, to);
+    if (offerCost(order[mid - 1]) <= offerCost(order[mid]))
+      return;
+    System.arraycopy(order, from, scratch, from, to - from);
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; k++) {
+      if (j >= to
+          || (i < mid && offerCost(scratch[i]) <= offerCost(scratch[j])))
+        order[k] = scratch[i++];
+      else
+        order[k] = scratch[j++];
+    }
+  }
+
+  /**
+   * Returns the sum of all brokers' imbalances, in kWh.
+   */
+  public double getTotalImbalance ()
+  {
+    return totalImbalance;
+  }
+
+  /**
+   * Returns the marginal price per kWh at which the timeslot settled.
+   */
+  public double getPrice ()
+  {
+    return price;
+  }
+
+  /**
+   * Returns the regulation taken from the external curves, in kWh:
+   * positive for up-regulation.
+   */
+  public double getExternalRegulation ()
+  {
+    return externalRegulation;
+  }
+
+  /**
+   * Returns the regulation exercised from a broker's offers, in kWh:
+   * positive for up-regulation.
+   */
+  public double getExercised (int broker)
+  {
+    return exercised[broker];
+  }
+
+  /**
+   * Returns a broker's settlement charge; positive when the broker is
+   * paid.
+   */
+  public double getCharge (int broker)
+  {
+    return charge[broker];
+  }
+}
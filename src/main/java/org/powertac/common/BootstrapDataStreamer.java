@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.powertac.common.interfaces.BootstrapDataCollector;
+import org.powertac.common.interfaces.BootstrapDataSink;
+import org.powertac.common.interfaces.ChunkedBootstrapDataCollector;
+
+/**
+ * Collects bootstrap data from a set of collectors at the end of a boot
+ * session and streams it to a BootstrapDataSink, instead of building the
+ * whole record in memory first.
+ * <p>
+ * The chunks of a ChunkedBootstrapDataCollector are generated concurrently
+ * on an executor, but at most window chunks are in flight at once, and
+ * they are written to the sink in order on the calling thread as they
+ * complete. Other collectors are called on the calling thread, in turn.
+ * The sink therefore sees exactly the messages, in the same order, as a
+ * sequential call of collectBootstrapData() on each collector.</p>
+ * <p>
+ * Like PriceLevelAuctioneer, this class is not a Spring service; the
+ * executor and sink are passed to the constructor.</p>
+ */
+public class BootstrapDataStreamer
+{
+  static private Logger log =
+          Logger.getLogger(BootstrapDataStreamer.class.getName());
+
+  private ExecutorService executor;
+  private BootstrapDataSink sink;
+  private int window = 8;
+
+  public BootstrapDataStreamer (ExecutorService executor,
+                                BootstrapDataSink sink)
+  {
+    super();
+    this.executor = executor;
+    this.sink = sink;
+  }
+
+  /**
+   * Sets the maximum number of chunks generated or waiting to be written
+   * at once, which bounds the memory held by completed chunks. Default
+   * is 8.
+   */
+  public BootstrapDataStreamer withWindow (int window)
+  {
+    this.window = Math.max(1, window);
+    return this;
+  }
+
+  public int getWindow ()
+  {
+    return window;
+  }
+
+  /**
+   * Collects bootstrap data from each collector in turn, and writes it to
+   * the sink. Returns the number of messages written.
+   * <p>
+   * If a chunk fails, the chunks still in flight are cancelled and an
+   * ExecutionException carrying the chunk's failure is thrown. If the
+   * calling thread is interrupted, the chunks in flight are cancelled and
+   * InterruptedException is thrown. In either case the sink has received
+   * only part of the data, and the caller must not write it out as a
+   * boot record.</p>
+   */
+  public int collect (List<? extends BootstrapDataCollector> collectors,
+                      int maxTimeslots)
+    throws InterruptedException, ExecutionException
+  {
+    int count = 0;
+    for (BootstrapDataCollector collector : collectors) {
+      if (collector instanceof ChunkedBootstrapDataCollector) {
+        count += stream((ChunkedBootstrapDataCollector)collector,
+                        maxTimeslots);
+      }
+      else {
+        count += write(collector.collectBootstrapData(maxTimeslots));
+      }
+    }
+    return count;
+  }
+
+  // Generates one collector's chunks on the executor and writes them in
+  // order. Returns the number of messages written.
+  private int stream (ChunkedBootstrapDataCollector collector,
+                      int maxTimeslots)
+    throws InterruptedException, ExecutionException
+  {
+    List<Callable<List<Object>>> tasks =
+        collector.getBootstrapDataTasks(maxTimeslots);
+    ArrayDeque<Future<List<Object>>> inFlight =
+        new ArrayDeque<Future<List<Object>>>(window);
+    int next = 0;
+    int count = 0;
+    while (next < tasks.size() || !inFlight.isEmpty()) {
+      while (next < tasks.size() && inFlight.size() < window) {
+        inFlight.add(executor.submit(tasks.get(next++)));
+      }
+      Future<List<Object>> chunk = inFlight.poll();
+      try {
+        // a completed chunk would not notice the interrupt
+        if (Thread.interrupted())
+          throw new InterruptedException();
+        count += write(chunk.get());
+      }
+      catch (InterruptedException ie) {
+        log.warn("Interrupted while collecting bootstrap data");
+        cancel(inFlight);
+        throw ie;
+      }
+      catch (ExecutionException ee) {
+        log.error("Bootstrap data chunk failed: " + ee.getCause(),
+                  ee.getCause());
+        cancel(inFlight);
+        throw ee;
+      }
+    }
+    return count;
+  }
+
+  private void cancel (ArrayDeque<Future<List<Object>>> inFlight)
+  {
+    for (Future<List<Object>> pending : inFlight)
+      pending.cancel(true);
+  }
+
+  private int write (List<Object> messages)
+  {
+    if (null == messages || messages.isEmpty())
+      return 0;
+    sink.write(messages);
+    return messages.size();
+  }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Binary snapshot of bootstrap state, written at the end of a boot session
+ * alongside the XML boot record, and memory-mapped at the start of a sim
+ * session. It holds named sections of primitive arrays, so bulk data such
+ * as per-customer usage histories can be restored without parsing XML or
+ * re-running the boot session's computations.
+ * <p>
+ * The file starts with a header giving the magic number, format version,
+ * and a directory of sections (name, type, element count, and offset).
+ * Section data follows, each section aligned to 8 bytes. All values are
+ * big-endian. Array getters return read-only views into the mapped file,
+ * so nothing is copied until the caller reads the data. The file is mapped
+ * as a single buffer, so a snapshot can be at most Integer.MAX_VALUE bytes
+ * long; larger snapshots are refused with an IOException when written or
+ * opened.</p>
+ */
+public class BootstrapSnapshot
+{
+  static private Logger log =
+          Logger.getLogger(BootstrapSnapshot.class.getName());
+
+  private static final int MAGIC = 0x50544253;
+  private static final int VERSION = 1;
+
+  // section types
+  private static final byte DOUBLES = 1;
+  private static final byte INTS = 2;
+  private static final byte LONGS = 3;
+  private static final byte STRING = 4;
+
+  private ByteBuffer buffer;
+  private Map<String, Section> sections = new LinkedHashMap<String, Section>();
+
+  private BootstrapSnapshot (ByteBuffer buffer)
+  {
+    super();
+    this.buffer = buffer;
+  }
+
+  /**
+   * Maps a snapshot file read-only and reads its directory. Throws
+   * IOException if the file cannot be read or is not a snapshot of a
+   * supported version.
+   */
+  public static BootstrapSnapshot open (File file) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    MappedByteBuffer mapped;
+    try {
+      if (raf.length() > Integer.MAX_VALUE)
+        throw new IOException("Snapshot " + file + " is " + raf.length()
+                              + " bytes, too large to map");
+      // the mapping remains valid after the file is closed
+      mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                                    0, raf.length());
+    }
+    finally {
+      raf.close();
+    }
+    BootstrapSnapshot result = new BootstrapSnapshot(mapped);
+    result.readDirectory();
+    return result;
+  }
+
+  private void readDirectory () throws IOException
+  {
+    try {
+      ByteBuffer header = buffer.duplicate();
+      if (header.getInt() != MAGIC)
+        throw new IOException("Not a bootstrap snapshot");
+      int version = header.getInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported snapshot version " + version);
+      int count = header.getInt();
+      for (int i = 0; i < count; i++) {
+        byte[] name = new byte[header.getShort() & 0xffff];
+        header.get(name);
+        byte type = header.get();
+        int length = header.getInt();
+        long offset = header.getLong();
+        if (offset < 0 || length < 0
+            || offset + (long)length * elementSize(type) > buffer.limit())
+          throw new IOException("Truncated snapshot");
+        sections.put(decode(name),
+                     new Section(type, length, (int)offset));
+      }
+    }
+    catch (BufferUnderflowException bue) {
+      throw new IOException("Truncated snapshot");
+    }
+  }
+
+  /**
+   * Returns the names of the sections in the snapshot, in the order they
+   * were written.
+   */
+  public Set<String> getSectionNames ()
+  {
+    return Collections.unmodifiableSet(sections.keySet());
+  }
+
+  public boolean hasSection (String name)
+  {
+    return sections.containsKey(name);
+  }
+
+  /**
+   * Returns a read-only view of a section of doubles, or null if there is
+   * no such section.
+   */
+  public DoubleBuffer getDoubles (String name)
+  {
+    ByteBuffer data = getData(name, DOUBLES);
+    if (null == data)
+      return null;
+    return data.asDoubleBuffer();
+  }
+
+  /**
+   * Returns a read-only view of a section of ints, or null if there is
+   * no such section.
+   */
+  public IntBuffer getInts (String name)
+  {
+    ByteBuffer data = getData(name, INTS);
+    if (null == data)
+      return null;
+    return data.asIntBuffer();
+  }
+
+  /**
+   * Returns a read-only view of a section of longs, or null if there is
+   * no such section.
+   */
+  public LongBuffer getLongs (String name)
+  {
+    ByteBuffer data = getData(name, LONGS);
+    if (null == data)
+      return null;
+    return data.asLongBuffer();
+  }
+
+  /**
+   * Returns a String section, or null if there is no such section.
+   */
+  public String getString (String name)
+  {
+    ByteBuffer data = getData(name, STRING);
+    if (null == data)
+      return null;
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    return decode(bytes);
+  }
+
+  // Returns a read-only slice holding a section's data, or null if the
+  // section is missing or has another type.
+  private ByteBuffer getData (String name, byte type)
+  {
+    Section section = sections.get(name);
+    if (null == section)
+      return null;
+    if (section.type != type) {
+      log.error("Snapshot section " + name + " has type " + section.type
+                + ", not " + type);
+      return null;
+    }
+    ByteBuffer data = buffer.asReadOnlyBuffer();
+    data.position(section.offset);
+    data.limit(section.offset + section.length * elementSize(type));
+    return data.slice();
+  }
+
+  private static int elementSize (byte type)
+  {
+    switch (type) {
+    case DOUBLES:
+    case LONGS:
+      return 8;
+    case INTS:
+      return 4;
+    default:
+      return 1;
+    }
+  }
+
+  private static byte[] encode (String value)
+  {
+    try {
+      return value.getBytes("UTF-8");
+    }
+    catch (UnsupportedEncodingException uee) {
+      // UTF-8 is always supported
+      throw new RuntimeException(uee);
+    }
+  }
+
+  private static String decode (byte[] bytes)
+  {
+    try {
+      return new String(bytes, "UTF-8");
+    }
+    catch (UnsupportedEncodingException uee) {
+      throw new RuntimeException(uee);
+    }
+  }
+
+  // directory entry
+  private static class Section
+  {
+    byte type;
+    int length;
+    int offset;
+
+    Section (byte type, int length, int offset)
+    {
+      super();
+      this.type = type;
+      this.length = length;
+      this.offset = offset;
+    }
+  }
+
+  /**
+   * Collects sections during a boot session and writes them out as a
+   * snapshot. Section names should be qualified by their owner, for
+   * example with a customer model name, since a section replaces any
+   * earlier section with the same name. Arrays are copied when they are
+   * put, so the caller may reuse them.
+   */
+  public static class Writer
+  {
+    private Map<String, Object> contents = new LinkedHashMap<String, Object>();
+
+    public Writer ()
+    {
+      super();
+    }
+
+    public synchronized Writer putDoubles (String name, double[] values)
+    {
+      contents.put(name, values.clone());
+      return this;
+    }
+
+    public synchronized Writer putInts (String name, int[] values)
+    {
+      contents.put(name, values.clone());
+      return this;
+    }
+
+    public synchronized Writer putLongs (String name, long[] values)
+    {
+      contents.put(name, values.clone());
+      return this;
+    }
+
+    public synchronized Writer putString (String name, String value)
+    {
+      contents.put(name, encode(value));
+      return this;
+    }
+
+    public synchronized int getSectionCount ()
+    {
+      return contents.size();
+    }
+
+    /**
+     * Writes the collected sections to the given file. Throws IOException
+     * without creating the file if the snapshot would be too large to map.
+     */
+    public synchronized void write (File file) throws IOException
+    {
+      // the directory size does not depend on the offsets in it
+      int headerSize = 12;
+      for (String name : contents.keySet()) {
+        headerSize += 2 + encode(name).length + 1 + 4 + 8;
+      }
+      long size = headerSize;
+      for (Object value : contents.values()) {
+        size = align(size)
+            + (long)lengthOf(value) * elementSize(typeOf(value));
+      }
+      if (size > Integer.MAX_VALUE)
+        throw new IOException("Snapshot would be " + size
+                              + " bytes, too large to map");
+      DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(contents.size());
+        long offset = align(headerSize);
+        for (Map.Entry<String, Object> entry : contents.entrySet()) {
+          byte[] name = encode(entry.getKey());
+          if (name.length > 0xffff)
+            throw new IOException("Section name too long: " + entry.getKey());
+          byte type = typeOf(entry.getValue());
+          int length = lengthOf(entry.getValue());
+          out.writeShort(name.length);
+          out.write(name);
+          out.writeByte(type);
+          out.writeInt(length);
+          out.writeLong(offset);
+          offset = align(offset + (long)length * elementSize(type));
+        }
+        long position = headerSize;
+        for (Object value : contents.values()) {
+          position = pad(out, position);
+          position += writeValue(out, value);
+        }
+      }
+      finally {
+        out.close();
+      }
+      log.info("Wrote " + contents.size() + " sections to " + file);
+    }
+
+    private long align (long position)
+    {
+      return (position + 7) & ~7l;
+    }
+
+    private long pad (DataOutputStream out, long position) throws IOException
+    {
+      long aligned = align(position);
+      for (long i = position; i < aligned; i++)
+        out.writeByte(0);
+      return aligned;
+    }
+
+    private byte typeOf (Object value)
+    {
+      if (value instanceof double[])
+        return DOUBLES;
+      if (value instanceof int[])
+        return INTS;
+      if (value instanceof long[])
+        return LONGS;
+      return STRING;
+    }
+
+    private int lengthOf (Object value)
+    {
+      if (value instanceof double[])
+        return ((double[])value).length;
+      if (value instanceof int[])
+        return ((int[])value).length;
+      if (value instanceof long[])
+        return ((long[])value).length;
+      return ((byte[])value).length;
+    }
+
+    // writes a section's data and returns its size in bytes
+    private long writeValue (DataOutputStream out, Object value)
+        throws IOException
+    {
+      if (value instanceof double[]) {
+        double[] values = (double[])value;
+        for (double v : values)
+          out.writeDouble(v);
+        return values.length * 8l;
+      }
+      if (value instanceof int[]) {
+        int[] values = (int[])value;
+        for (int v : values)
+          out.writeInt(v);
+        return values.length * 4l;
+      }
+      if (value instanceof long[]) {
+        long[] values = (long[])value;
+        for (long v : values)
+          out.writeLong(v);
+        return values.length * 8l;
+      }
+      byte[] bytes = (byte[])value;
+      out.write(bytes);
+      return bytes.length;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-broker energy balance, updated as Accounting records transactions,
+ * so the balancing market can read each broker's imbalance without
+ * rescanning the timeslot's transactions.
+ * <p>
+ * Net load is the sum of the kWh of the current timeslot's CONSUME and
+ * PRODUCE tariff transactions; consumption is negative. Market positions
+ * are kept in MWh for each future timeslot, since market transactions
+ * are made ahead of delivery. The imbalance for a timeslot is the market
+ * position in kWh plus the net load: positive when the broker has bought
+ * more than its customers use.</p>
+ * <p>
+ * rollTimeslot() must be called at the start of each timeslot, before
+ * any tariff transactions for it are recorded.</p>
+ */
+public class ImbalanceLedger
+{
+  private Map<Broker, Account> accounts = new HashMap<Broker, Account>();
+
+  public ImbalanceLedger ()
+  {
+    super();
+  }
+
+  /**
+   * Records a tariff transaction. Only CONSUME and PRODUCE transactions
+   * change the net load.
+   */
+  public synchronized void addTariffTransaction (Broker broker,
+                                                 TariffTransaction.Type type,
+                                                 double kWh)
+  {
+    if (TariffTransaction.Type.CONSUME == type
+        || TariffTransaction.Type.PRODUCE == type)
+      getAccount(broker).netLoad += kWh;
+  }
+
+  /**
+   * Records a market transaction of mWh for delivery in the timeslot with
+   * the given serial number. Purchases are positive.
+   */
+  public synchronized void addMarketTransaction (Broker broker, int timeslot,
+                                                 double mWh)
+  {
+    Account account = getAccount(broker);
+    double[] position = account.positions.get(timeslot);
+    if (null == position) {
+      position = new double[1];
+      account.positions.put(timeslot, position);
+    }
+    position[0] += mWh;
+  }
+
+  /**
+   * Returns the broker's net load in kWh for the current timeslot.
+   */
+  public synchronized double getNetLoad (Broker broker)
+  {
+    Account account = accounts.get(broker);
+    if (null == account)
+      return 0.0;
+    return account.netLoad;
+  }
+
+  /**
+   * Returns the broker's market position in MWh for the given timeslot.
+   */
+  public synchronized double getMarketPosition (Broker broker, int timeslot)
+  {
+    Account account = accounts.get(broker);
+    if (null == account)
+      return 0.0;
+    double[] position = account.positions.get(timeslot);
+    if (null == position)
+      return 0.0;
+    return position[0];
+  }
+
+  /**
+   * Returns the broker's imbalance in kWh for the given timeslot.
+   */
+  public synchronized double getImbalance (Broker broker, int timeslot)
+  {
+    return getMarketPosition(broker, timeslot) * 1000.0 + getNetLoad(broker);
+  }
+
+  /**
+   * Fills result with the imbalance of each broker in the list, in kWh,
+   * and returns it. A new array is allocated if result is null or too
+   * short.
+   */
+  public synchronized double[] getImbalances (List<Broker> brokers,
+                                              int timeslot, double[] result)
+  {
+    if (null == result || result.length < brokers.size())
+      result = new double[brokers.size()];
+    for (int i = 0; i < brokers.size(); i++) {
+      result[i] = getImbalance(brokers.get(i), timeslot);
+    }
+    return result;
+  }
+
+  /**
+   * Starts a new timeslot: clears net loads, and discards market positions
+   * for timeslots before the new one.
+   */
+  public synchronized void rollTimeslot (int timeslot)
+  {
+    for (Account account : accounts.values()) {
+      account.netLoad = 0.0;
+      Iterator<Integer> slots = account.positions.keySet().iterator();
+      while (slots.hasNext()) {
+        if (slots.next() < timeslot)
+          slots.remove();
+      }
+    }
+  }
+
+  private Account getAccount (Broker broker)
+  {
+    Account result = accounts.get(broker);
+    if (null == result) {
+      result = new Account();
+      accounts.put(broker, result);
+    }
+    return result;
+  }
+
+  // running totals for one broker
+  private static class Account
+  {
+    double netLoad = 0.0;
+    Map<Integer, double[]> positions = new HashMap<Integer, double[]>();
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded inbound message stage in front of BrokerProxy.routeMessage().
+ * Each broker has its own queue of limited capacity; messages that arrive
+ * at a full queue are rejected, so a broker that floods the server can
+ * only fill its own queue. Queues are drained round-robin, one message
+ * per broker per round, so every broker's messages make progress within
+ * the timeslot deadline.
+ * <p>
+ * Per-broker counts of accepted, rejected, and dropped messages are kept
+ * until resetCounts() is called. Messages are dropped when they are still
+ * queued at discardPending(), typically at the end of a timeslot.</p>
+ */
+public class InboundMessageQueue
+{
+  static private Logger log =
+          Logger.getLogger(InboundMessageQueue.class.getName());
+
+  private int capacity;
+
+  // per-broker queues, in order of first arrival
+  private Map<Broker, ArrayDeque<Object>> queues =
+          new LinkedHashMap<Broker, ArrayDeque<Object>>();
+
+  // brokers with queued messages, in drain order
+  private ArrayDeque<Broker> ready = new ArrayDeque<Broker>();
+
+  private Map<Broker, Counts> counts = new HashMap<Broker, Counts>();
+
+  public InboundMessageQueue (int capacity)
+  {
+    super();
+    setCapacity(capacity);
+  }
+
+  public synchronized int getCapacity ()
+  {
+    return capacity;
+  }
+
+  /**
+   * Sets the per-broker capacity. Messages already queued beyond a
+   * reduced capacity are kept.
+   */
+  public synchronized void setCapacity (int capacity)
+  {
+    if (capacity < 1) {
+      log.error("capacity " + capacity + " < 1");
+      return;
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * Queues a message from a broker. Returns false if the broker's queue
+   * is full, in which case the message is rejected.
+   */
+  public synchronized boolean offer (Broker broker, Object message)
+  {
+    Counts c = getOrCreateCounts(broker);
+    ArrayDeque<Object> queue = queues.get(broker);
+    if (null == queue) {
+      queue = new ArrayDeque<Object>();
+      queues.put(broker, queue);
+    }
+    if (queue.size() >= capacity) {
+      c.rejected += 1;
+      return false;
+    }
+    if (queue.isEmpty())
+      ready.addLast(broker);
+    queue.addLast(message);
+    c.accepted += 1;
+    return true;
+  }
+
+  /**
+   * Returns the number of messages queued for the broker.
+   */
+  public synchronized int size (Broker broker)
+  {
+    ArrayDeque<Object> queue = queues.get(broker);
+    if (null == queue)
+      return 0;
+    return queue.size();
+  }
+
+  /**
+   * Removes and returns the next message in round-robin order,
+   * or null if nothing is queued.
+   */
+  public synchronized Object poll ()
+  {
+    Broker broker = ready.pollFirst();
+    if (null == broker)
+      return null;
+    ArrayDeque<Object> queue = queues.get(broker);
+    Object result = queue.pollFirst();
+    if (!queue.isEmpty())
+      ready.addLast(broker);
+    return result;
+  }
+
+  /**
+   * Dispatches up to maxMessages queued messages in round-robin order.
+   * Returns the number dispatched. The queue is not locked during
+   * dispatch, so handlers may queue more messages.
+   */
+  public int drain (MessageDispatchTable dispatcher, int maxMessages)
+  {
+    int count = 0;
+    while (count < maxMessages) {
+      Object message = poll();
+      if (null == message)
+        break;
+      dispatcher.dispatch(message);
+      count += 1;
+    }
+    return count;
+  }
+
+  /**
+   * Discards all queued messages, counting them as dropped.
+   */
+  public synchronized void discardPending ()
+  {
+    for (Map.Entry<Broker, ArrayDeque<Object>> entry : queues.entrySet()) {
+      ArrayDeque<Object> queue = entry.getValue();
+      if (!queue.isEmpty()) {
+        getOrCreateCounts(entry.getKey()).dropped += queue.size();
+        queue.clear();
+      }
+    }
+    ready.clear();
+  }
+
+  /**
+   * Returns the message counts for the given broker since the last reset.
+   */
+  public synchronized Counts getCounts (Broker broker)
+  {
+    Counts result = counts.get(broker);
+    if (null == result)
+      return new Counts();
+    return result.copy();
+  }
+
+  /**
+   * Logs and clears the per-broker message counts.
+   */
+  public synchronized void resetCounts ()
+  {
+    for (Map.Entry<Broker, Counts> entry : counts.entrySet()) {
+      Counts c = entry.getValue();
+      if (c.rejected > 0 || c.dropped > 0)
+        log.warn("Inbound from " + entry.getKey().getUsername()
+                 + ": " + c.accepted + " accepted, "
+                 + c.rejected + " rejected, " + c.dropped + " dropped");
+    }
+    counts.clear();
+  }
+
+  private Counts getOrCreateCounts (Broker broker)
+  {
+    Counts result = counts.get(broker);
+    if (null == result) {
+      result = new Counts();
+      counts.put(broker, result);
+    }
+    return result;
+  }
+
+  /**
+   * Inbound message counts for a single broker.
+   */
+  public static class Counts
+  {
+    private int accepted = 0;
+    private int rejected = 0;
+    private int dropped = 0;
+
+    public int getAccepted ()
+    {
+      return accepted;
+    }
+
+    public int getRejected ()
+    {
+      return rejected;
+    }
+
+    public int getDropped ()
+    {
+      return dropped;
+    }
+
+    Counts copy ()
+    {
+      Counts result = new Counts();
+      result.accepted = accepted;
+      result.rejected = rejected;
+      result.dropped = dropped;
+      return result;
+    }
+  }
+}
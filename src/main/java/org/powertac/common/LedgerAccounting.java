@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Instant;
+import org.powertac.common.interfaces.Accounting;
+import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.interfaces.TariffTransactionVisitor;
+import org.powertac.common.repo.TimeslotRepo;
+
+/**
+ * Reference Accounting implementation in which every query is answered
+ * from running totals. Net loads and market positions are kept in an
+ * ImbalanceLedger, supply and demand in a SupplyDemandAggregate, and
+ * each broker's cash change and outgoing transactions are accumulated as
+ * transactions are added, so getCurrentNetLoad(),
+ * getCurrentMarketPosition(), and getCurrentSupplyDemand() take
+ * constant time, and activate() does not rescan the transactions.
+ * <p>
+ * Cash balances are kept here rather than on the Broker. A market
+ * transaction moves price * |mWh| of cash, so buyers should be given a
+ * negative price. Like PriceLevelAuctioneer, this class is not a Spring
+ * service; its components are passed to the constructor.</p>
+ */
+public class LedgerAccounting implements Accounting
+{
+  static private Logger log =
+          Logger.getLogger(LedgerAccounting.class.getName());
+
+  private TransactionFactory txFactory;
+  private BrokerProxy brokerProxy;
+  private TimeslotRepo timeslotRepo;
+
+  private ImbalanceLedger ledger = new ImbalanceLedger();
+  private SupplyDemandAggregate supplyDemand = new SupplyDemandAggregate();
+  private List<TariffTransaction> pendingTariffTransactions =
+          new ArrayList<TariffTransaction>();
+
+  // filter keys of the pending tariff transactions, kept in step with
+  // pendingTariffTransactions
+  private List<Broker> pendingBrokers = new ArrayList<Broker>();
+  private List<TariffTransaction.Type> pendingTypes =
+          new ArrayList<TariffTransaction.Type>();
+  private List<CustomerInfo> pendingCustomers = new ArrayList<CustomerInfo>();
+
+  // per-broker activity for the current timeslot, in order of first use
+  private Map<Broker, Activity> activity =
+          new LinkedHashMap<Broker, Activity>();
+
+  // cash balances
+  private Map<Broker, double[]> cash = new LinkedHashMap<Broker, double[]>();
+
+  public LedgerAccounting (TransactionFactory txFactory,
+                           BrokerProxy brokerProxy,
+                           TimeslotRepo timeslotRepo)
+  {
+    super();
+    this.txFactory = txFactory;
+    this.brokerProxy = brokerProxy;
+    this.timeslotRepo = timeslotRepo;
+  }
+
+  @Override
+  public synchronized MarketTransaction
+  addMarketTransaction (Broker broker, Timeslot timeslot,
+                        double mWh, double price)
+  {
+    MarketTransaction tx =
+        txFactory.makeMarketTransaction(broker, timeslot, mWh, price);
+    ledger.addMarketTransaction(broker, timeslot.getSerialNumber(), mWh);
+    record(broker, tx, price * Math.abs(mWh));
+    return tx;
+  }
+
+  @Override
+  public synchronized TariffTransaction
+  addTariffTransaction (TariffTransaction.Type txType, Tariff tariff,
+                        CustomerInfo customer, int customerCount,
+                        double kWh, double charge)
+  {
+    Broker broker = tariff.getBroker();
+    TariffTransaction tx =
+        txFactory.makeTariffTransaction(broker, txType,
+                                        tariff.getTariffSpec(), customer,
+                                        customerCount, kWh, charge);
+    pendingTariffTransactions.add(tx);
+    pendingBrokers.add(broker);
+    pendingTypes.add(txType);
+    pendingCustomers.add(customer);
+    ledger.addTariffTransaction(broker, txType, kWh);
+    supplyDemand.add(broker, txType, kWh);
+    record(broker, tx, charge);
+    return tx;
+  }
+
+  /**
+   * Adds a batch of tariff transactions under a single lock acquisition.
+   */
+  @Override
+  public synchronized List<TariffTransaction>
+  addTariffTransactions (TariffTransactionBatch batch)
+  {
+    List<TariffTransaction> result =
+        new ArrayList<TariffTransaction>(batch.size());
+    for (int i = 0; i < batch.size(); i++) {
+      result.add(addTariffTransaction(batch.getTxType(i), batch.getTariff(i),
+                                      batch.getCustomer(i),
+                                      batch.getCustomerCount(i),
+                                      batch.getKWh(i), batch.getCharge(i)));
+    }
+    return result;
+  }
+
+  @Override
+  public synchronized DistributionTransaction
+  addDistributionTransaction (Broker broker, double load, double fee)
+  {
+    DistributionTransaction tx =
+        txFactory.makeDistributionTransaction(broker, load, fee);
+    record(broker, tx, fee);
+    return tx;
+  }
+
+  @Override
+  public synchronized BalancingTransaction
+  addBalancingTransaction (Broker broker, double imbalance, double charge)
+  {
+    BalancingTransaction tx =
+        txFactory.makeBalancingTransaction(broker, imbalance, charge);
+    record(broker, tx, charge);
+    return tx;
+  }
+
+  @Override
+  public double getCurrentNetLoad (Broker broker)
+  {
+    return ledger.getNetLoad(broker);
+  }
+
+  @Override
+  public Map<Broker, Map<TariffTransaction.Type, Double>>
+  getCurrentSupplyDemandByBroker ()
+  {
+    return supplyDemand.asMap();
+  }
+
+  @Override
+  public double getCurrentSupplyDemand (Broker broker,
+                                        TariffTransaction.Type type)
+  {
+    return supplyDemand.get(broker, type);
+  }
+
+  @Override
+  public double getCurrentMarketPosition (Broker broker)
+  {
+    return ledger.getMarketPosition(broker,
+                                    timeslotRepo.currentSerialNumber());
+  }
+
+  /**
+   * Returns a copy of the pending tariff transactions, taken under the
+   * lock, so it is not changed by later transactions or by activate().
+   * Consumers that need only some of the transactions should use
+   * visitPendingTariffTransactions(), which does not copy.
+   */
+  @Override
+  public synchronized List<TariffTransaction> getPendingTariffTransactions ()
+  {
+    return new ArrayList<TariffTransaction>(pendingTariffTransactions);
+  }
+
+  /**
+   * Visits the matching pending tariff transactions. The filter is applied
+   * to the broker, type, and customer recorded when each transaction was
+   * added.
+   */
+  @Override
+  public synchronized int
+  visitPendingTariffTransactions (TariffTransactionVisitor visitor,
+                                  Broker broker,
+                                  TariffTransaction.Type type,
+                                  CustomerInfo customer)
+  {
+    int count = 0;
+    int size = pendingTariffTransactions.size();
+    for (int i = 0; i < size; i++) {
+      if (null != broker && broker != pendingBrokers.get(i))
+        continue;
+      if (null != type && type != pendingTypes.get(i))
+        continue;
+      if (null != customer && customer != pendingCustomers.get(i))
+        continue;
+      visitor.visit(pendingTariffTransactions.get(i));
+      count += 1;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the cash balance of a broker.
+   */
+  public synchronized double getCashBalance (Broker broker)
+  {
+    double[] balance = cash.get(broker);
+    if (null == balance)
+      return 0.0;
+    return balance[0];
+  }
+
+  /**
+   * Applies each broker's accumulated cash change, and sends the broker
+   * its transactions for the timeslot along with its new CashPosition.
+   * Then starts the next timeslot.
+   */
+  @Override
+  public synchronized void activate (Instant time, int phase)
+  {
+    log.info("Activate: " + activity.size() + " active brokers");
+    for (Map.Entry<Broker, Activity> entry : activity.entrySet()) {
+      Broker broker = entry.getKey();
+      Activity act = entry.getValue();
+      double[] balance = cash.get(broker);
+      if (null == balance) {
+        balance = new double[1];
+        cash.put(broker, balance);
+      }
+      balance[0] += act.cashChange;
+      act.messages.add(txFactory.makeCashPosition(broker, balance[0]));
+      brokerProxy.sendMessages(broker, act.messages);
+    }
+    activity.clear();
+    pendingTariffTransactions.clear();
+    pendingBrokers.clear();
+    pendingTypes.clear();
+    pendingCustomers.clear();
+    supplyDemand.reset();
+    ledger.rollTimeslot(timeslotRepo.currentSerialNumber() + 1);
+  }
+
+  // adds a transaction to its broker's activity
+  private void record (Broker broker, Object tx, double cashChange)
+  {
+    Activity act = activity.get(broker);
+    if (null == act) {
+      act = new Activity();
+      activity.put(broker, act);
+    }
+    act.messages.add(tx);
+    act.cashChange += cashChange;
+  }
+
+  // one broker's transactions and cash change in the current timeslot
+  private static class Activity
+  {
+    List<Object> messages = new ArrayList<Object>();
+    double cashChange = 0.0;
+  }
+}
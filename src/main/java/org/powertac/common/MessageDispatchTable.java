@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Class-to-handler dispatch table for routing broker messages to the
+ * listeners registered through
+ * BrokerProxy.registerBrokerMessageListener(). Handler methods are not
+ * looked up for every message; the handlers for a message class,
+ * including subclasses of registered types, are resolved on first use
+ * and cached until the next registration.
+ * <p>
+ * A handler is the most specific public method with the configured name
+ * (by default handleMessage) that takes a single argument assignable
+ * from the message's actual class, so a subclass message goes to a more
+ * specific overload if the listener has one. Registration checks that a
+ * handler exists for the registered type. Registration and dispatch may
+ * run concurrently.</p>
+ */
+public class MessageDispatchTable
+{
+  static private Logger log =
+          Logger.getLogger(MessageDispatchTable.class.getName());
+
+  private String methodName;
+
+  // registrations and the derived lookup cache are replaced together
+  private volatile Table table =
+          new Table(Collections.<Handler> emptyList());
+
+  public MessageDispatchTable ()
+  {
+    this("handleMessage");
+  }
+
+  public MessageDispatchTable (String methodName)
+  {
+    super();
+    this.methodName = methodName;
+  }
+
+  /**
+   * Registers a listener for messages of type msgType and its subclasses.
+   * Returns false if the listener has no suitable handler method.
+   */
+  public synchronized boolean register (Object listener, Class<?> msgType)
+  {
+    Method method = resolve(listener.getClass(), msgType);
+    if (null == method) {
+      log.error("No " + methodName + "(" + msgType.getName() + ") in "
+                + listener.getClass().getName());
+      return false;
+    }
+    List<Handler> handlers = new ArrayList<Handler>(table.handlers);
+    handlers.add(new Handler(listener, msgType, method));
+    table = new Table(handlers);
+    return true;
+  }
+
+  /**
+   * Delivers the message to each listener registered for its class or
+   * one of its supertypes, in order of registration. Returns false if
+   * there are no such listeners.
+   */
+  public boolean dispatch (Object message)
+  {
+    Handler[] handlers = getHandlers(message.getClass());
+    for (Handler handler : handlers) {
+      handler.invoke(message);
+    }
+    return handlers.length > 0;
+  }
+
+  /**
+   * Returns the number of listeners that will receive messages of the
+   * given class.
+   */
+  public int getListenerCount (Class<?> messageClass)
+  {
+    return getHandlers(messageClass).length;
+  }
+
+  // cached lookup; a miss scans the registrations and resolves each
+  // listener's handler for the message class
+  private Handler[] getHandlers (Class<?> messageClass)
+  {
+    Table current = table;
+    Handler[] result = current.cache.get(messageClass);
+    if (null == result) {
+      List<Handler> matches = new ArrayList<Handler>();
+      for (Handler handler : current.handlers) {
+        if (!handler.msgType.isAssignableFrom(messageClass))
+          continue;
+        if (handler.msgType == messageClass) {
+          matches.add(handler);
+          continue;
+        }
+        Method method = resolve(handler.listener.getClass(), messageClass);
+        matches.add(new Handler(handler.listener, handler.msgType, method));
+      }
+      result = matches.toArray(new Handler[matches.size()]);
+      current.cache.put(messageClass, result);
+    }
+    return result;
+  }
+
+  // finds the most specific handler method for msgType
+  private Method resolve (Class<?> listenerClass, Class<?> msgType)
+  {
+    Method result = null;
+    for (Method method : listenerClass.getMethods()) {
+      if (!method.getName().equals(methodName))
+        continue;
+      Class<?>[] params = method.getParameterTypes();
+      if (params.length != 1 || !params[0].isAssignableFrom(msgType))
+        continue;
+      if (null == result
+          || result.getParameterTypes()[0].isAssignableFrom(params[0]))
+        result = method;
+    }
+    if (null != result)
+      result.setAccessible(true);
+    return result;
+  }
+
+  // immutable registration list with its lookup cache
+  private static class Table
+  {
+    final List<Handler> handlers;
+    final ConcurrentHashMap<Class<?>, Handler[]> cache =
+            new ConcurrentHashMap<Class<?>, Handler[]>();
+
+    Table (List<Handler> handlers)
+    {
+      this.handlers = handlers;
+    }
+  }
+
+  // a listener with the handler method resolved for one message class
+  private static class Handler
+  {
+    final Object listener;
+    final Class<?> msgType;
+    final Method method;
+
+    Handler (Object listener, Class<?> msgType, Method method)
+    {
+      this.listener = listener;
+      this.msgType = msgType;
+      this.method = method;
+    }
+
+    void invoke (Object message)
+    {
+      try {
+        method.invoke(listener, message);
+      }
+      catch (IllegalAccessException iae) {
+        log.error("Cannot access " + method + ": " + iae.toString());
+      }
+      catch (InvocationTargetException ite) {
+        log.error("Error handling " + message.getClass().getName()
+                  + " in " + listener.getClass().getName() + ": "
+                  + ite.getCause(), ite.getCause());
+      }
+    }
+  }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Outbound message stage for BrokerProxy implementations. Each message is
+ * serialized exactly once, no matter how many brokers it is sent to;
+ * broadcast payloads are shared among recipients as read-only buffers.
+ * A broadcast list is serialized into a single buffer, and each recipient
+ * gets read-only slices of it, so fan-out does not copy.
+ * While deferred, everything bound for a broker is held and coalesced into
+ * a single envelope, which is shipped by flush(). This is the behavior
+ * behind BrokerProxy.setDeferredBroadcast() and
+ * broadcastDeferredMessages().
+ * <p>
+ * An envelope is the ordered list of serialized messages for one broker.
+ * Framing the envelope on the wire is up to the Transport, typically as a
+ * single gathering write.</p>
+ * <p>
+ * Envelopes are queued per broker while the batcher is locked, and handed
+ * to the Transport after the lock is released, so a slow broker does not
+ * hold up callers sending to other brokers. Each broker still receives its
+ * envelopes in order; a caller may end up shipping envelopes queued by
+ * other callers for the same broker.</p>
+ * <p>
+ * Message and byte counts are kept per broker, and are logged and cleared
+ * by resetTraffic(), which should be called once per timeslot.</p>
+ */
+public class OutboundMessageBatcher
+{
+  static private Logger log =
+          Logger.getLogger(OutboundMessageBatcher.class.getName());
+
+  /**
+   * Serializes a single outgoing message onto the end of the stream.
+   */
+  public interface Encoder
+  {
+    public void encode (Object message, OutputStream out) throws IOException;
+  }
+
+  /**
+   * Ships an envelope to a broker. The buffers are read-only and may be
+   * shared with other recipients, so they must not be retained after
+   * the call returns unless they are duplicated first.
+   */
+  public interface Transport
+  {
+    public void send (Broker broker, List<ByteBuffer> envelope);
+  }
+
+  private Encoder encoder;
+  private Transport transport;
+
+  private boolean deferred = false;
+
+  // envelopes held while deferred, in order of first use
+  private Map<Broker, List<ByteBuffer>> pending =
+          new LinkedHashMap<Broker, List<ByteBuffer>>();
+
+  // envelopes waiting for the transport, per broker
+  private Map<Broker, Outbox> outboxes = new HashMap<Broker, Outbox>();
+
+  // per-broker traffic since the last reset
+  private Map<Broker, Traffic> traffic = new HashMap<Broker, Traffic>();
+
+  public OutboundMessageBatcher (Encoder encoder, Transport transport)
+  {
+    super();
+    this.encoder = encoder;
+    this.transport = transport;
+  }
+
+  /**
+   * Holds up message transmission until flush() is called when true.
+   */
+  public synchronized void setDeferred (boolean value)
+  {
+    deferred = value;
+  }
+
+  public synchronized boolean isDeferred ()
+  {
+    return deferred;
+  }
+
+  /**
+   * Sends a message to a single broker.
+   */
+  public void send (Broker broker, Object message)
+  {
+    List<Broker> ready = new ArrayList<Broker>();
+    synchronized (this) {
+      ByteBuffer payload = encode(message);
+      if (null != payload)
+        enqueue(broker, payload, ready);
+    }
+    deliver(ready);
+  }
+
+  /**
+   * Sends a list of messages to a single broker, in order.
+   */
+  public void send (Broker broker, List<?> messages)
+  {
+    List<Broker> ready = new ArrayList<Broker>();
+    synchronized (this) {
+      List<ByteBuffer> envelope = envelopeFor(broker);
+      envelope.addAll(encode(messages));
+      ship(broker, envelope, ready);
+    }
+    deliver(ready);
+  }
+
+  /**
+   * Sends a message to each of the recipients. The message is serialized
+   * once. The recipients are resolved at the time of the call, even if
+   * transmission is deferred.
+   */
+  public void broadcast (Collection<Broker> recipients, Object message)
+  {
+    List<Broker> ready = new ArrayList<Broker>();
+    synchronized (this) {
+      ByteBuffer payload = encode(message);
+      if (null == payload)
+        return;
+      for (Broker broker : recipients) {
+        enqueue(broker, payload.duplicate(), ready);
+      }
+    }
+    deliver(ready);
+  }
+
+  /**
+   * Sends a list of messages to each of the recipients. The list is
+   * serialized once into a single buffer, shared by all recipients.
+   */
+  public void broadcast (Collection<Broker> recipients, List<?> messages)
+  {
+    List<Broker> ready = new ArrayList<Broker>();
+    synchronized (this) {
+      List<ByteBuffer> payloads = encode(messages);
+      for (Broker broker : recipients) {
+        List<ByteBuffer> envelope = envelopeFor(broker);
+        for (ByteBuffer payload : payloads) {
+          envelope.add(payload.duplicate());
+        }
+        ship(broker, envelope, ready);
+      }
+    }
+    deliver(ready);
+  }
+
+  /**
+   * Ships the held envelopes, one per broker, and ends deferral.
+   */
+  public void flush ()
+  {
+    List<Broker> ready = new ArrayList<Broker>();
+    synchronized (this) {
+      deferred = false;
+      for (Map.Entry<Broker, List<ByteBuffer>> entry : pending.entrySet()) {
+        transmit(entry.getKey(), entry.getValue(), ready);
+      }
+      pending.clear();
+    }
+    deliver(ready);
+  }
+
+  /**
+   * Returns the traffic sent to the given broker since the last reset.
+   */
+  public synchronized Traffic getTraffic (Broker broker)
+  {
+    Traffic result = traffic.get(broker);
+    if (null == result)
+      return new Traffic();
+    return result.copy();
+  }
+
+  /**
+   * Logs and clears the per-broker traffic counts.
+   */
+  public synchronized void resetTraffic ()
+  {
+    for (Map.Entry<Broker, Traffic> entry : traffic.entrySet()) {
+      Traffic t = entry.getValue();
+      log.info("Traffic to " + entry.getKey().getUsername()
+               + ": " + t.messageCount + " messages, "
+               + t.byteCount + " bytes in "
+               + t.envelopeCount + " envelopes");
+    }
+    traffic.clear();
+  }
+
+  // serializes a single message into a read-only buffer,
+  // or returns null if it cannot be serialized
+  private ByteBuffer encode (Object message)
+  {
+    PayloadStream out = new PayloadStream();
+    try {
+      encoder.encode(message, out);
+    }
+    catch (IOException ioe) {
+      log.error("Cannot serialize " + message + ": " + ioe.toString());
+      return null;
+    }
+    catch (RuntimeException re) {
+      log.error("Cannot serialize " + message + ": " + re.toString());
+      return null;
+    }
+    return out.toBuffer();
+  }
+
+  // serializes a list of messages into a single buffer, and returns
+  // read-only slices of it, one per message. Messages that cannot be
+  // serialized are dropped.
+  private List<ByteBuffer> encode (List<?> messages)
+  {
+    PayloadStream out = new PayloadStream();
+    int[] offsets = new int[messages.size() + 1];
+    int index = 0;
+    for (Object message : messages) {
+      int start = out.size();
+      try {
+        encoder.encode(message, out);
+        offsets[++index] = out.size();
+      }
+      catch (IOException ioe) {
+        log.error("Cannot serialize " + message + ": " + ioe.toString());
+        out.truncate(start);
+      }
+      catch (RuntimeException re) {
+        log.error("Cannot serialize " + message + ": " + re.toString());
+        out.truncate(start);
+      }
+    }
+    ByteBuffer shared = out.toBuffer();
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>(index);
+    for (int i = 0; i < index; i++) {
+      ByteBuffer slice = shared.duplicate();
+      slice.limit(offsets[i + 1]);
+      slice.position(offsets[i]);
+      result.add(slice.slice());
+    }
+    return result;
+  }
+
+  // adds a single payload to the broker's envelope
+  private void enqueue (Broker broker, ByteBuffer payload, List<Broker> ready)
+  {
+    List<ByteBuffer> envelope = envelopeFor(broker);
+    envelope.add(payload);
+    ship(broker, envelope, ready);
+  }
+
+  // returns the pending envelope while deferred, otherwise a new one
+  private List<ByteBuffer> envelopeFor (Broker broker)
+  {
+    if (!deferred)
+      return new ArrayList<ByteBuffer>();
+    List<ByteBuffer> envelope = pending.get(broker);
+    if (null == envelope) {
+      envelope = new ArrayList<ByteBuffer>();
+      pending.put(broker, envelope);
+    }
+    return envelope;
+  }
+
+  // ships the envelope unless it's being held
+  private void ship (Broker broker, List<ByteBuffer> envelope,
+                     List<Broker> ready)
+  {
+    if (!deferred)
+      transmit(broker, envelope, ready);
+  }
+
+  // counts the envelope and queues it for the transport. Brokers whose
+  // queues this caller must drain are added to ready.
+  private void transmit (Broker broker, List<ByteBuffer> envelope,
+                         List<Broker> ready)
+  {
+    if (envelope.isEmpty())
+      return;
+    Traffic t = traffic.get(broker);
+    if (null == t) {
+      t = new Traffic();
+      traffic.put(broker, t);
+    }
+    t.envelopeCount += 1;
+    t.messageCount += envelope.size();
+    for (ByteBuffer payload : envelope) {
+      t.byteCount += payload.remaining();
+    }
+    Outbox outbox = outboxes.get(broker);
+    if (null == outbox) {
+      outbox = new Outbox();
+      outboxes.put(broker, outbox);
+    }
+    outbox.envelopes.add(envelope);
+    if (!outbox.draining) {
+      outbox.draining = true;
+      ready.add(broker);
+    }
+  }
+
+  // Hands queued envelopes to the transport. Must be called without
+  // holding the lock.
+  private void deliver (List<Broker> ready)
+  {
+    for (Broker broker : ready) {
+      drain(broker);
+    }
+  }
+
+  // Ships the broker's envelopes in order until its queue is empty.
+  // Only one caller at a time drains a given broker.
+  private void drain (Broker broker)
+  {
+    boolean idle = false;
+    try {
+      while (!idle) {
+        List<ByteBuffer> envelope;
+        synchronized (this) {
+          Outbox outbox = outboxes.get(broker);
+          envelope = outbox.envelopes.poll();
+          if (null == envelope) {
+            outbox.draining = false;
+            idle = true;
+            continue;
+          }
+        }
+        try {
+          transport.send(broker, envelope);
+        }
+        catch (RuntimeException re) {
+          log.error("Cannot send to " + broker.getUsername() + ": "
+                    + re.toString());
+        }
+      }
+    }
+    finally {
+      if (!idle) {
+        synchronized (this) {
+          outboxes.get(broker).draining = false;
+        }
+      }
+    }
+  }
+
+  // Envelopes waiting for one broker
+  private static class Outbox
+  {
+    Queue<List<ByteBuffer>> envelopes = new ArrayDeque<List<ByteBuffer>>();
+    boolean draining = false;
+  }
+
+  // Exposes its buffer without the copy made by toByteArray()
+  private static class PayloadStream extends ByteArrayOutputStream
+  {
+    PayloadStream ()
+    {
+      super(512);
+    }
+
+    void truncate (int size)
+    {
+      count = size;
+    }
+
+    ByteBuffer toBuffer ()
+    {
+      return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+    }
+  }
+
+  /**
+   * Outbound traffic counts for a single broker.
+   */
+  public static class Traffic
+  {
+    private int envelopeCount = 0;
+    private int messageCount = 0;
+    private long byteCount = 0l;
+
+    public int getEnvelopeCount ()
+    {
+      return envelopeCount;
+    }
+
+    public int getMessageCount ()
+    {
+      return messageCount;
+    }
+
+    public long getByteCount ()
+    {
+      return byteCount;
+    }
+
+    Traffic copy ()
+    {
+      Traffic result = new Traffic();
+      result.envelopeCount = envelopeCount;
+      result.messageCount = messageCount;
+      result.byteCount = byteCount;
+      return result;
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+import org.joda.time.Instant;
+import org.powertac.common.interfaces.Accounting;
+import org.powertac.common.interfaces.Auctioneer;
+import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.repo.TimeslotRepo;
+
+/**
+ * Reference Auctioneer implementation built on per-timeslot
+ * PriceLevelBooks. Each order is added to the price levels of its
+ * timeslot's book as it arrives, so clearing walks the aggregated levels
+ * instead of sorting all the orders of each open timeslot.
+ * <p>
+ * Clearing creates a MarketTransaction through Accounting for each
+ * executed order, and broadcasts a ClearedTrade for each timeslot that
+ * traded and an Orderbook for each timeslot that had orders. In the
+ * parallel mode, only the book computations run on the executor; domain
+ * objects are created on the calling thread, so ids and the state log
+ * match sequential clearing. Unfilled
+ * orders expire at clearing. This class is not a Spring service, so it
+ * does not compete with the server's auctioneer for injection; the
+ * components it needs are passed to the constructor.</p>
+ */
+public class PriceLevelAuctioneer implements Auctioneer
+{
+  static private Logger log =
+          Logger.getLogger(PriceLevelAuctioneer.class.getName());
+
+  private Accounting accounting;
+  private BrokerProxy brokerProxy;
+  private TimeService timeService;
+  private TimeslotRepo timeslotRepo;
+
+  // clearing parameters
+  private double sellerSurplusRatio = 0.5;
+  private double defaultClearingPrice = 40.0;
+
+  // open books, by timeslot serial number
+  private TreeMap<Integer, PriceLevelBook> books =
+          new TreeMap<Integer, PriceLevelBook>();
+
+  public PriceLevelAuctioneer (Accounting accounting,
+                               BrokerProxy brokerProxy,
+                               TimeService timeService,
+                               TimeslotRepo timeslotRepo)
+  {
+    super();
+    this.accounting = accounting;
+    this.brokerProxy = brokerProxy;
+    this.timeService = timeService;
+    this.timeslotRepo = timeslotRepo;
+  }
+
+  /**
+   * Sets the share of the spread between the marginal ask and bid that
+   * goes to the seller. Default is 0.5.
+   */
+  public PriceLevelAuctioneer withSellerSurplusRatio (double ratio)
+  {
+    if (ratio < 0.0 || ratio > 1.0)
+      log.error("seller surplus ratio " + ratio + " not in [0,1]");
+    else
+      sellerSurplusRatio = ratio;
+    return this;
+  }
+
+  /**
+   * Sets the clearing price used when both marginal orders are market
+   * orders. Default is 40.0/MWh.
+   */
+  public PriceLevelAuctioneer withDefaultClearingPrice (double price)
+  {
+    defaultClearingPrice = price;
+    return this;
+  }
+
+  /**
+   * Adds the order to the book for its timeslot. Orders without a broker,
+   * without quantity, or for a timeslot that is missing or not enabled
+   * are logged and dropped.
+   */
+  @Override
+  public synchronized void processOrder (Order order)
+  {
+    String problem = validateOrder(order);
+    if (null != problem) {
+      log.warn("Order " + order.getId() + " rejected: " + problem);
+      return;
+    }
+    getBook(order.getTimeslot()).add(order);
+  }
+
+  /**
+   * Adds a batch of orders to their books in a single pass, under one
+   * lock. Orders for the same timeslot are usually adjacent, so the book
+   * lookup is skipped until the timeslot changes. Invalid orders are
+   * checked as in processOrder(), dropped, and reported in a single log
+   * entry that counts them by reason.
+   */
+  @Override
+  public synchronized void processOrders (List<Order> orders)
+  {
+    TreeMap<String, Integer> rejected = null;
+    int rejectedCount = 0;
+    PriceLevelBook book = null;
+    for (Order order : orders) {
+      String problem = validateOrder(order);
+      if (null != problem) {
+        if (null == rejected)
+          rejected = new TreeMap<String, Integer>();
+        Integer count = rejected.get(problem);
+        rejected.put(problem, (null == count) ? 1 : count + 1);
+        rejectedCount += 1;
+        continue;
+      }
+      Timeslot timeslot = order.getTimeslot();
+      if (null == book || book.getTimeslot() != timeslot)
+        book = getBook(timeslot);
+      book.add(order);
+    }
+    if (null != rejected)
+      log.warn(rejectedCount + " of " + orders.size()
+               + " orders rejected: " + rejected);
+  }
+
+  // returns the reason an order cannot be booked, or null if it is valid
+  private String validateOrder (Order order)
+  {
+    if (null == order.getBroker())
+      return "no broker";
+    Timeslot timeslot = order.getTimeslot();
+    if (null == timeslot)
+      return "no timeslot";
+    if (!timeslotRepo.isTimeslotEnabled(timeslot))
+      return "timeslot " + timeslot.getSerialNumber() + " not enabled";
+    if (0.0 == order.getMWh())
+      return "no quantity";
+    return null;
+  }
+
+  // returns the book for a timeslot, creating it if needed
+  private PriceLevelBook getBook (Timeslot timeslot)
+  {
+    PriceLevelBook book = books.get(timeslot.getSerialNumber());
+    if (null == book) {
+      book = createBook(timeslot);
+      books.put(timeslot.getSerialNumber(), book);
+    }
+    return book;
+  }
+
+  // test-support
+  PriceLevelBook createBook (Timeslot timeslot)
+  {
+    return new PriceLevelBook(timeslot);
+  }
+
+  /**
+   * Clears every open book, in timeslot order.
+   */
+  @Override
+  public void clearMarket ()
+  {
+    publish(takeBooks());
+  }
+
+  /**
+   * Clears the open books concurrently on the executor, then posts
+   * transactions and broadcasts messages in timeslot order.
+   * <p>
+   * If the calling thread is interrupted, books not yet started are
+   * withdrawn from the executor, books already being cleared are waited
+   * for, and the rest are cleared on the calling thread before
+   * publishing; the interrupt status is kept. If clearing a book fails,
+   * nothing is published: the other books are allowed to finish, their
+   * orders are dropped, and the failure is rethrown.</p>
+   */
+  @Override
+  public void clearMarket (ExecutorService executor)
+  {
+    List<PriceLevelBook> toClear = takeBooks();
+    List<ClearTask> tasks = new ArrayList<ClearTask>(toClear.size());
+    List<Future<?>> results = new ArrayList<Future<?>>(toClear.size());
+    for (PriceLevelBook book : toClear) {
+      ClearTask task = new ClearTask(book);
+      tasks.add(task);
+      results.add(executor.submit(task));
+    }
+    for (Future<?> result : results) {
+      try {
+        result.get();
+      }
+      catch (InterruptedException ie) {
+        log.warn("Interrupted while clearing");
+        // no worker may touch a book once the caller takes it over
+        for (int i = 0; i < tasks.size(); i++) {
+          results.get(i).cancel(false);
+          tasks.get(i).stop();
+        }
+        Thread.currentThread().interrupt();
+        break;
+      }
+      catch (ExecutionException ee) {
+        // recorded by the task, and reported below
+      }
+    }
+    for (ClearTask task : tasks) {
+      Throwable failure = task.failure;
+      if (null != failure) {
+        log.error("Clearing timeslot "
+                  + task.book.getTimeslot().getSerialNumber()
+                  + " failed, nothing published: " + failure, failure);
+        // a Runnable can only throw unchecked exceptions
+        if (failure instanceof Error)
+          throw (Error)failure;
+        throw (RuntimeException)failure;
+      }
+    }
+    publish(toClear);
+  }
+
+  // Clears one book on a worker thread. A task the caller stops before it
+  // starts never runs; one already running is waited for.
+  private class ClearTask implements Runnable
+  {
+    private final PriceLevelBook book;
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure = null;
+
+    ClearTask (PriceLevelBook book)
+    {
+      super();
+      this.book = book;
+    }
+
+    @Override
+    public void run ()
+    {
+      if (!claimed.compareAndSet(false, true))
+        return;
+      try {
+        book.clear(sellerSurplusRatio, defaultClearingPrice);
+      }
+      catch (RuntimeException re) {
+        failure = re;
+        throw re;
+      }
+      catch (Error e) {
+        failure = e;
+        throw e;
+      }
+      finally {
+        done.countDown();
+      }
+    }
+
+    // keeps the task from starting, or waits for it to finish
+    void stop ()
+    {
+      if (claimed.compareAndSet(false, true))
+        return;
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        }
+        catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  // removes the open books, in timeslot order
+  private synchronized List<PriceLevelBook> takeBooks ()
+  {
+    List<PriceLevelBook> result =
+            new ArrayList<PriceLevelBook>(books.values());
+    books.clear();
+    return result;
+  }
+
+  // posts transactions and broadcasts messages for the books, in order
+  private void publish (List<PriceLevelBook> toClear)
+  {
+    Instant now = timeService.getCurrentTime();
+    List<Object> messages = new ArrayList<Object>();
+    for (PriceLevelBook book : toClear) {
+      clearBook(book, now, messages);
+    }
+    if (!messages.isEmpty())
+      brokerProxy.broadcastMessages(messages);
+  }
+
+  // clears a single book, posting transactions and collecting messages
+  void clearBook (PriceLevelBook book, Instant now, List<Object> messages)
+  {
+    book.clear(sellerSurplusRatio, defaultClearingPrice);
+    Timeslot timeslot = book.getTimeslot();
+    Double price = book.getClearingPrice();
+    if (null != price) {
+      List<Order> orders = book.getOrders();
+      for (int i = 0; i < orders.size(); i++) {
+        double mWh = book.getExecutedMWh(i);
+        if (0.0 == mWh)
+          continue;
+        // buyers pay, sellers are paid
+        accounting.addMarketTransaction(orders.get(i).getBroker(), timeslot,
+                                        mWh, (mWh > 0.0) ? -price : price);
+      }
+      messages.add(new ClearedTrade(timeslot, book.getClearedQuantity(),
+                                    price, now));
+      log.info("Cleared " + book.getClearedQuantity() + " MWh in timeslot "
+               + timeslot.getSerialNumber() + " at " + price);
+    }
+    messages.add(book.makeOrderbook(now));
+  }
+}
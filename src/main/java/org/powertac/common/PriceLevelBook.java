@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.Instant;
+
+/**
+ * Order book for a single timeslot, kept as aggregated price levels.
+ * Each order is added to its price level as it arrives, so clearing only
+ * has to walk the levels from the best bid down and the best ask up,
+ * rather than sort the orders. Levels are held in primitive arrays.
+ * <p>
+ * Bids are orders with positive mWh; their levels are keyed on the price
+ * the buyer is willing to pay (the negated limit price). Asks have
+ * negative mWh, and are keyed on the limit price. Market orders have
+ * a null limit price, and sort ahead of all limit orders.</p>
+ * <p>
+ * A book is cleared once, after which the per-order execution quantities
+ * and the uncleared levels are available.</p>
+ */
+public class PriceLevelBook
+{
+  private Timeslot timeslot;
+  private List<Order> orders = new ArrayList<Order>();
+  private PriceLevels bids = new PriceLevels();
+  private PriceLevels asks = new PriceLevels();
+
+  // clearing results
+  private boolean cleared = false;
+  private Double clearingPrice = null;
+  private double clearedQuantity = 0.0;
+  private double marginalBid = Double.NaN;
+  private double marginalAsk = Double.NaN;
+  private double bidFraction = 0.0;
+  private double askFraction = 0.0;
+
+  public PriceLevelBook (Timeslot timeslot)
+  {
+    super();
+    this.timeslot = timeslot;
+  }
+
+  public Timeslot getTimeslot ()
+  {
+    return timeslot;
+  }
+
+  public List<Order> getOrders ()
+  {
+    return orders;
+  }
+
+  public int getOrderCount ()
+  {
+    return orders.size();
+  }
+
+  public int getBidLevelCount ()
+  {
+    return bids.size;
+  }
+
+  public int getAskLevelCount ()
+  {
+    return asks.size;
+  }
+
+  /**
+   * Adds an order to its price level. Orders with zero quantity are
+   * ignored.
+   */
+  public void add (Order order)
+  {
+    double mWh = order.getMWh();
+    if (mWh > 0.0)
+      bids.add(bidKey(order), mWh);
+    else if (mWh < 0.0)
+      asks.add(askKey(order), -mWh);
+    else
+      return;
+    orders.add(order);
+  }
+
+  /**
+   * Clears the book. The clearing price divides the spread between the
+   * marginal ask and the marginal bid according to sellerSurplusRatio.
+   * If only one side of the margin has a limit price, that price is used;
+   * if both are market orders, defaultPrice is used. Orders at the
+   * marginal level on each side are filled pro-rata. Calls after the
+   * first have no effect, so a book can be cleared on a worker thread and
+   * then published from the caller.
+   */
+  public synchronized void clear (double sellerSurplusRatio,
+                                  double defaultPrice)
+  {
+    if (cleared)
+      return;
+    cleared = true;
+    int bi = bids.size - 1;
+    int ai = 0;
+    double bidRemaining = (bi >= 0) ? bids.quantity[bi] : 0.0;
+    double askRemaining = (ai < asks.size) ? asks.quantity[ai] : 0.0;
+    int marginalBidIndex = -1;
+    int marginalAskIndex = -1;
+    double bidsBefore = 0.0; // quantity of bid levels ahead of the margin
+    double asksBefore = 0.0;
+    while (bi >= 0 && ai < asks.size && bids.price[bi] >= asks.price[ai]) {
+      double qty = Math.min(bidRemaining, askRemaining);
+      clearedQuantity += qty;
+      bidRemaining -= qty;
+      askRemaining -= qty;
+      marginalBidIndex = bi;
+      marginalAskIndex = ai;
+      if (bidRemaining <= 0.0) {
+        bidsBefore += bids.quantity[bi];
+        bi -= 1;
+        if (bi >= 0)
+          bidRemaining = bids.quantity[bi];
+      }
+      if (askRemaining <= 0.0) {
+        asksBefore += asks.quantity[ai];
+        ai += 1;
+        if (ai < asks.size)
+          askRemaining = asks.quantity[ai];
+      }
+    }
+    if (marginalBidIndex < 0)
+      return;
+
+    marginalBid = bids.price[marginalBidIndex];
+    if (marginalBidIndex == bi)
+      bidFraction = (clearedQuantity - bidsBefore)
+                    / bids.quantity[marginalBidIndex];
+    else
+      bidFraction = 1.0;
+    marginalAsk = asks.price[marginalAskIndex];
+    if (marginalAskIndex == ai)
+      askFraction = (clearedQuantity - asksBefore)
+                    / asks.quantity[marginalAskIndex];
+    else
+      askFraction = 1.0;
+
+    boolean marketBid = Double.isInfinite(marginalBid);
+    boolean marketAsk = Double.isInfinite(marginalAsk);
+    if (marketBid && marketAsk)
+      clearingPrice = defaultPrice;
+    else if (marketBid)
+      clearingPrice = marginalAsk;
+    else if (marketAsk)
+      clearingPrice = marginalBid;
+    else
+      clearingPrice = marginalAsk
+                      + sellerSurplusRatio * (marginalBid - marginalAsk);
+  }
+
+  /**
+   * Returns the clearing price per MWh, or null if nothing traded.
+   */
+  public Double getClearingPrice ()
+  {
+    return clearingPrice;
+  }
+
+  /**
+   * Returns the total quantity traded, in MWh.
+   */
+  public double getClearedQuantity ()
+  {
+    return clearedQuantity;
+  }
+
+  /**
+   * Returns the quantity executed for the order at the given index in
+   * getOrders(), with the sign of the order: positive for bids, negative
+   * for asks.
+   */
+  public double getExecutedMWh (int index)
+  {
+    if (null == clearingPrice)
+      return 0.0;
+    Order order = orders.get(index);
+    double mWh = order.getMWh();
+    if (mWh > 0.0) {
+      double key = bidKey(order);
+      if (key > marginalBid)
+        return mWh;
+      else if (key == marginalBid)
+        return mWh * bidFraction;
+    }
+    else {
+      double key = askKey(order);
+      if (key < marginalAsk)
+        return mWh;
+      else if (key == marginalAsk)
+        return mWh * askFraction;
+    }
+    return 0.0;
+  }
+
+  /**
+   * Returns an Orderbook holding the uncleared quantity at each price
+   * level, for broadcast to brokers.
+   */
+  public Orderbook makeOrderbook (Instant when)
+  {
+    Orderbook result = new Orderbook(timeslot, clearingPrice, when);
+    for (int i = 0; i < bids.size; i++) {
+      double remaining = bids.quantity[i];
+      double key = bids.price[i];
+      if (null != clearingPrice && key >= marginalBid) {
+        if (key > marginalBid)
+          continue;
+        remaining *= (1.0 - bidFraction);
+      }
+      if (remaining > 0.0)
+        result.addBid(new OrderbookOrder(remaining,
+                                         Double.isInfinite(key) ? null : -key));
+    }
+    for (int i = 0; i < asks.size; i++) {
+      double remaining = asks.quantity[i];
+      double key = asks.price[i];
+      if (null != clearingPrice && key <= marginalAsk) {
+        if (key < marginalAsk)
+          continue;
+        remaining *= (1.0 - askFraction);
+      }
+      if (remaining > 0.0)
+        result.addAsk(new OrderbookOrder(-remaining,
+                                         Double.isInfinite(key) ? null : key));
+    }
+    return result;
+  }
+
+  // price a buyer is willing to pay; market orders pay anything
+  private double bidKey (Order order)
+  {
+    Double limit = order.getLimitPrice();
+    if (null == limit)
+      return Double.POSITIVE_INFINITY;
+    return -limit;
+  }
+
+  // price a seller will accept; market orders accept anything
+  private double askKey (Order order)
+  {
+    Double limit = order.getLimitPrice();
+    if (null == limit)
+      return Double.NEGATIVE_INFINITY;
+    return limit;
+  }
+
+  // Aggregated quantities by price, in ascending price order
+  private static class PriceLevels
+  {
+    double[] price = new double[16];
+    double[] quantity = new double[16];
+    int size = 0;
+
+    void add (double key, double qty)
+    {
+      int index = Arrays.binarySearch(price, 0, size, key);
+      if (index >= 0) {
+        quantity[index] += qty;
+        return;
+      }
+      index = -(index + 1);
+      if (size == price.length) {
+        price = Arrays.copyOf(price, size * 2);
+        quantity = Arrays.copyOf(quantity, size * 2);
+      }
+      System.arraycopy(price, index, price, index + 1, size - index);
+      System.arraycopy(quantity, index, quantity, index + 1, size - index);
+      price[index] = key;
+      quantity[index] = qty;
+      size += 1;
+    }
+  }
+}
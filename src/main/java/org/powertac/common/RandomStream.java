@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+/**
+ * Fast, splittable pseudo-random generator for code that runs customer
+ * models or sub-populations in parallel. Unlike RandomSeed, which inherits
+ * the compare-and-set on every draw from java.util.Random, a RandomStream
+ * is not thread-safe and does no synchronization; each thread should use
+ * its own stream, obtained by split(), substream(), or jump().
+ * <p>
+ * The generator is the SplitMix64 algorithm. A stream is fully determined
+ * by its root seed, so streams are reproducible as long as the root seed
+ * is. Get root streams through RandomSeedRepo.getRandomStream(), which
+ * records the root seed in the state log just as it does for RandomSeed.
+ * </p>
+ * <p>
+ * RandomStream extends java.util.Random so it can be handed to existing
+ * model code, but it cannot be re-seeded with setSeed().</p>
+ */
+public class RandomStream extends java.util.Random
+{
+  // needed because Random is serializable
+  private static final long serialVersionUID = 1L;
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  // seed this stream was created with, the basis for substreams
+  private final long origin;
+
+  // current state and per-stream increment, which must be odd
+  private long seed;
+  private final long gamma;
+
+  // false while the superclass constructor calls setSeed()
+  private boolean initialized;
+
+  /**
+   * Creates a stream from a root seed value.
+   */
+  public RandomStream (long seed)
+  {
+    this(seed, GOLDEN_GAMMA);
+  }
+
+  private RandomStream (long seed, long gamma)
+  {
+    super(0L);
+    this.origin = seed;
+    this.seed = seed;
+    this.gamma = gamma;
+    this.initialized = true;
+  }
+
+  /**
+   * Returns a new stream, seeded from the next values of this one. The
+   * result depends on how many values have been drawn from this stream.
+   */
+  public RandomStream split ()
+  {
+    return new RandomStream(nextLong(), mixGamma(nextSeed()));
+  }
+
+  /**
+   * Returns the index-th substream of this stream. The result depends only
+   * on the seed this stream was created with and the index, not on how
+   * many values have been drawn, so substreams can be handed out to worker
+   * threads or sub-populations in any order.
+   */
+  public RandomStream substream (long index)
+  {
+    long base = origin + GOLDEN_GAMMA * (index + 1);
+    return new RandomStream(mix64(base), mixGamma(base + GOLDEN_GAMMA));
+  }
+
+  /**
+   * Advances this stream by the given number of steps, as though nextLong()
+   * had been called that many times.
+   */
+  public void jump (long steps)
+  {
+    seed += steps * gamma;
+  }
+
+  @Override
+  public long nextLong ()
+  {
+    return mix64(nextSeed());
+  }
+
+  @Override
+  public int nextInt ()
+  {
+    return mix32(nextSeed());
+  }
+
+  /**
+   * Returns a uniformly distributed value in [0, bound).
+   */
+  @Override
+  public int nextInt (int bound)
+  {
+    if (bound <= 0)
+      throw new IllegalArgumentException("bound must be positive");
+    int r = mix32(nextSeed());
+    int m = bound - 1;
+    if ((bound & m) == 0) {
+      // power of two
+      return r & m;
+    }
+    // reject values from the incomplete last interval
+    for (int u = r >>> 1; u + m - (r = u % bound) < 0;
+         u = mix32(nextSeed()) >>> 1)
+      ;
+    return r;
+  }
+
+  @Override
+  public double nextDouble ()
+  {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  @Override
+  public boolean nextBoolean ()
+  {
+    return mix32(nextSeed()) < 0;
+  }
+
+  @Override
+  protected int next (int bits)
+  {
+    return (int)(nextLong() >>> (64 - bits));
+  }
+
+  /**
+   * Not supported once the stream is constructed; streams are determined
+   * by their root seed.
+   */
+  @Override
+  public void setSeed (long seed)
+  {
+    if (initialized)
+      throw new UnsupportedOperationException();
+  }
+
+  public long getOrigin ()
+  {
+    return origin;
+  }
+
+  private long nextSeed ()
+  {
+    return seed += gamma;
+  }
+
+  private static long mix64 (long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static int mix32 (long z)
+  {
+    z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+    return (int)(((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+  }
+
+  // produces an odd gamma with enough bit transitions to mix well
+  private static long mixGamma (long z)
+  {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    int n = Long.bitCount(z ^ (z >>> 1));
+    return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-broker totals of tariff transaction kWh for the current timeslot,
+ * kept in primitive arrays indexed by broker and by
+ * TariffTransaction.Type. Accounting implementations update it as
+ * tariff transactions are added, so that no boxed values are created
+ * until getCurrentSupplyDemandByBroker() asks for a snapshot.
+ * <p>
+ * Brokers are assigned indexes as they are first seen in a timeslot.
+ * reset() forgets them along with their totals, so a broker appears in
+ * the snapshot only if it has transactions in the current timeslot.</p>
+ */
+public class SupplyDemandAggregate
+{
+  // types reported in the snapshot
+  private static final TariffTransaction.Type[] SUPPLY_DEMAND =
+    {TariffTransaction.Type.CONSUME, TariffTransaction.Type.PRODUCE};
+
+  // brokers in order of first use, with their indexes
+  private Map<Broker, Integer> brokerIndex =
+          new LinkedHashMap<Broker, Integer>();
+
+  // totals[type.ordinal()][broker index]
+  private double[][] totals;
+
+  public SupplyDemandAggregate ()
+  {
+    super();
+    totals = new double[TariffTransaction.Type.values().length][8];
+  }
+
+  /**
+   * Adds the kWh of a tariff transaction to its broker's total.
+   */
+  public synchronized void add (Broker broker, TariffTransaction.Type type,
+                                double kWh)
+  {
+    // indexOf() may grow the rows, so it must run before the row is read
+    int index = indexOf(broker);
+    totals[type.ordinal()][index] += kWh;
+  }
+
+  /**
+   * Returns the broker's total kWh for the given type.
+   */
+  public synchronized double get (Broker broker, TariffTransaction.Type type)
+  {
+    Integer index = brokerIndex.get(broker);
+    if (null == index)
+      return 0.0;
+    return totals[type.ordinal()][index];
+  }
+
+  /**
+   * Clears all brokers and their totals for a new timeslot.
+   */
+  public synchronized void reset ()
+  {
+    int count = brokerIndex.size();
+    for (double[] row : totals) {
+      Arrays.fill(row, 0, count, 0.0);
+    }
+    brokerIndex.clear();
+  }
+
+  /**
+   * Returns a read-only snapshot of the CONSUME and PRODUCE totals by
+   * broker, in the form returned by
+   * Accounting.getCurrentSupplyDemandByBroker(). Later transactions and
+   * resets do not change it.
+   */
+  public synchronized Map<Broker, Map<TariffTransaction.Type, Double>> asMap ()
+  {
+    Map<Broker, Map<TariffTransaction.Type, Double>> result =
+            new HashMap<Broker, Map<TariffTransaction.Type, Double>>();
+    for (Map.Entry<Broker, Integer> entry : brokerIndex.entrySet()) {
+      int index = entry.getValue();
+      Map<TariffTransaction.Type, Double> types =
+              new HashMap<TariffTransaction.Type, Double>();
+      for (TariffTransaction.Type type : SUPPLY_DEMAND) {
+        types.put(type, totals[type.ordinal()][index]);
+      }
+      result.put(entry.getKey(), Collections.unmodifiableMap(types));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  private int indexOf (Broker broker)
+  {
+    Integer index = brokerIndex.get(broker);
+    if (null != index)
+      return index;
+    int result = brokerIndex.size();
+    brokerIndex.put(broker, result);
+    if (result == totals[0].length) {
+      for (int i = 0; i < totals.length; i++) {
+        totals[i] = Arrays.copyOf(totals[i], result * 2);
+      }
+    }
+    return result;
+  }
+}
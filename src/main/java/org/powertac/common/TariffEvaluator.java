@@ -443,23 +443,40 @@ public class TariffEvaluator
         util.probability = 0.0;
       }
     }
-    int remainingPopulation = population;
-    int chunk = remainingPopulation;
+    if (population <= 0)
+      return;
+    int chunk = population;
     if (customerInfo.isMultiContracting()) {
       // Ideally, each individual customer makes a choice.
       // For large populations, we do it in chunks.
       chunk = getChunkSize(population);
     }
-    while (remainingPopulation > 0) {
+    // When no chunk can be skipped, each chunk draws an inertia sample and
+    // then a choice sample, so the samples for all chunks can be drawn at
+    // once in that order. Otherwise whether a chunk draws a choice sample
+    // depends on its inertia sample, and the draws are made chunk by chunk.
+    int chunkCount = (population + chunk - 1) / chunk;
+    double[] inertiaSamples = null;
+    double[] choiceSamples = null;
+    if (revoked || inertia <= 0.0) {
+      inertiaSamples = new double[chunkCount];
+      choiceSamples = new double[chunkCount];
+      accessor.getTariffEvaluationSamples(inertiaSamples, choiceSamples);
+    }
+
+    int remainingPopulation = population;
+    for (int i = 0; i < chunkCount; i++) {
       int count = (int)Math.min(remainingPopulation, chunk);
       remainingPopulation -= count;
       // allocate a chunk
-      double inertiaSample = accessor.getInertiaSample();
+      double inertiaSample = (null != inertiaSamples)
+              ? inertiaSamples[i] : accessor.getInertiaSample();
       if (!revoked && inertiaSample < inertia) {
         // skip this one if not processing revoked tariff
         continue;
       }
-      double tariffSample = accessor.getTariffChoiceSample();
+      double tariffSample = (null != choiceSamples)
+              ? choiceSamples[i] : accessor.getTariffChoiceSample();
       // walk down the list until we run out of probability
       boolean allocated = false;
       for (TariffUtility tu : evals) {
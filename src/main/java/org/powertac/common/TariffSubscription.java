@@ -16,8 +16,8 @@
 package org.powertac.common;
 
 //import org.codehaus.groovy.grails.commons.ApplicationHolder
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.joda.time.Instant;
@@ -33,7 +33,15 @@ import org.powertac.common.state.StateChange;
  * You get one by calling the subscribe() method on Tariff. If there is no
  * current subscription for that Customer (which in most cases is actually
  * a population model), then a new TariffSubscription is created and
- * returned from the Tariff.  
+ * returned from the Tariff.
+ * <p>
+ * Regulation state is updated without locking, because customer models
+ * may use power while the balancing market is exercising controls. The
+ * double-valued quantities, including the up- and down-regulation
+ * capacities, are held as raw long bits in AtomicLongs and updated by
+ * compare-and-set. RegulationCapacity instances are created only when
+ * capacity is set or reported, so updates do not add domain objects to
+ * the state log.</p>
  * @author John Collins, Carsten Block
  */
 @Domain
@@ -60,32 +68,38 @@ public class TariffSubscription
    * rates cannot be applied properly. */
   private int customersCommitted = 0 ;
   
-  /** List of expiration dates. This is used only if the Tariff has a minDuration,
+  /** Queue of expiration dates. This is used only if the Tariff has a minDuration,
    *  before which a subscribed Customer cannot back out without a penalty. Each
-   *  entry in this list is a pair [expiration-date, customer-count]. New entries
-   *  are added chronologically at the end of the list, so the front of the list
+   *  entry in this queue is a pair [expiration-date, customer-count]. New entries
+   *  are added chronologically at the end of the queue, so the front of the queue
    *  holds the oldest subscriptions - the ones that can be unsubscribed soonest
    *  without penalty. */
-  private List<ExpirationRecord> expirations;
+  private ExpirationQueue expirations;
+
+  /** Start of the current day, recomputed only when the clock leaves it */
+  private long currentDay = Long.MIN_VALUE;
 
   /** Total usage so far in the current day, needed to compute charges for
-   *  tiered rates. */
-  private double totalUsage = 0.0;
+   *  tiered rates. Per-member value, stored as double bits. */
+  private final AtomicLong totalUsage = new AtomicLong();
   
   /** Count of customers who will not be subscribers in the next timeslot */
   private int pendingUnsubscribeCount = 0; 
 
   // ------------- Regulation capacity ----------------
-  /** Pending economic regulation (from phase 1) */
-  private double pendingRegulationRatio = 0.0;
+  /** Pending economic regulation (from phase 1), stored as double bits */
+  private final AtomicLong pendingRegulationRatio = new AtomicLong();
 
-  /** Available regulation capacity for the current timeslot. */
-  RegulationCapacity regulationCapacity;
+  /** Available per-member regulation capacity for the current timeslot,
+   * stored as double bits. Up-regulation capacity is non-negative,
+   * down-regulation capacity non-positive. */
+  private final AtomicLong upRegulationCapacity = new AtomicLong();
+  private final AtomicLong downRegulationCapacity = new AtomicLong();
 
   /** Actual up-regulation (positive) or down-regulation (negative)
-   * from previous timeslot.
+   * from previous timeslot, stored as double bits.
    * Should always be zero after the customer model has run. */
-  private double regulation = 0.0;
+  private final AtomicLong regulation = new AtomicLong();
 
   /**
    * You need a CustomerInfo and a Tariff to create one of these.
@@ -95,8 +109,23 @@ public class TariffSubscription
     super();
     this.customer = customer;
     this.tariff = tariff;
-    expirations = new ArrayList<ExpirationRecord>();
-    regulationCapacity = new RegulationCapacity(this, 0.0, 0.0);
+    expirations = new ExpirationQueue();
+  }
+
+  /**
+   * Supplies the Spring components this subscription uses, so they need
+   * not be looked up by name. Intended to be called by
+   * TariffSubscriptionRepo as it creates subscriptions. Any component left
+   * null is looked up on first use, as before.
+   */
+  public TariffSubscription withServices (TimeService timeService,
+                                          Accounting accounting,
+                                          TariffMarket tariffMarket)
+  {
+    this.timeService = timeService;
+    this.accountingService = accounting;
+    this.tariffMarketService = tariffMarket;
+    return this;
   }
 
   public long getId ()
@@ -121,7 +150,7 @@ public class TariffSubscription
 
   public double getTotalUsage ()
   {
-    return totalUsage;
+    return Double.longBitsToDouble(totalUsage.get());
   }
 
   // ============================ Customer API ===============================
@@ -140,25 +169,11 @@ public class TariffSubscription
     customersCommitted += customerCount;
     
     // if the Tariff has a minDuration, then we have to record the expiration date.
-    // we do this by adding an entry to end of list, or updating the entry at the end.
-    // An entry is a pair [Instant, count]
+    // we do this by adding an entry to end of queue, or updating the entry at the end.
+    // An entry is a pair [horizon, count]
     long minDuration = tariff.getMinDuration();
-    //if (minDuration > 0) {
-    // Compute the 00:00 Instant for the current time
-    Instant start =
-            getTimeService().truncateInstant(getTimeService().getCurrentTime(),
-                                             TimeService.DAY);
-    if (expirations.size() > 0 &&
-        expirations.get(expirations.size() - 1).getHorizon() == start.getMillis() + minDuration) {
-      // update existing entry
-      expirations.get(expirations.size() - 1).updateCount(customerCount);
-    }
-    else {
-      // need a new entry
-      expirations.add(new ExpirationRecord(start.getMillis() + minDuration,
-                                           customerCount));
-    }
-    //}
+    // Contracts start at 00:00 of the current day
+    expirations.add(getCurrentDay() + minDuration, customerCount);
     // post the signup bonus
     if (tariff.getSignupPayment() != 0.0) {
       log.debug("signup bonus: " + customerCount + 
@@ -200,19 +215,8 @@ public class TariffSubscription
     // find the number of customers who can withdraw without penalty
     int freeAgentCount = getExpiredCustomerCount();
     int penaltyCount = Math.max (customerCount - freeAgentCount, 0);
-    // update the expirations list
-    int expCount = customerCount;
-    while (expCount > 0 && expirations.get(0) != null) {
-      int cec = expirations.get(0).getCount();
-      if (cec <= expCount) {
-        expCount -= cec;
-        expirations.remove(0);
-      }
-      else {
-        expirations.get(0).updateCount(-expCount);
-        expCount = 0;
-      }
-    }
+    // update the expirations queue
+    expirations.removeOldest(customerCount);
     customersCommitted -= customerCount;
     // Post withdrawal and possible penalties
     double withdrawPayment = -tariff.getEarlyWithdrawPayment();
@@ -294,34 +298,91 @@ public class TariffSubscription
    */
   public void usePower (double kwh)
   {
-    // deal with no-regulation customers
-    ensureRegulationCapacity();
+    usePower(kwh, getTimeService().getHourOfDay() == 0, null);
+  }
+
+  /**
+   * Bulk form of usePower() for customer models that use power under
+   * several subscriptions in the same timeslot. The kwh array is parallel
+   * to the subscriptions list, and each value is an aggregate across the
+   * subscribed population, as in usePower(double). The time of day and
+   * the Accounting service are looked up once for the whole batch, and
+   * the usage and periodic transactions of all the subscriptions are
+   * posted together with one Accounting.addTariffTransactions() call,
+   * in list order.
+   * <p>
+   * Each usage charge is still computed by its own Tariff, which records
+   * the usage in its totals; a customer has one subscription per tariff,
+   * so there is no rate resolution to share.</p>
+   *
+   * @throws IllegalArgumentException if the lengths of subscriptions and
+   * kwh differ. Nothing is posted in that case.
+   */
+  public static void usePower (List<TariffSubscription> subscriptions,
+                               double[] kwh)
+  {
+    if (subscriptions.size() != kwh.length) {
+      throw new IllegalArgumentException("usePower: " + subscriptions.size()
+                                         + " subscriptions but "
+                                         + kwh.length + " usage values");
+    }
+    if (subscriptions.isEmpty())
+      return;
+    TariffSubscription first = subscriptions.get(0);
+    boolean startOfDay = first.getTimeService().getHourOfDay() == 0;
+    TariffTransactionBatch batch = new TariffTransactionBatch(kwh.length * 2);
+    for (int i = 0; i < kwh.length; i++) {
+      subscriptions.get(i).usePower(kwh[i], startOfDay, batch);
+    }
+    first.getAccounting().addTariffTransactions(batch);
+  }
+
+  // Does the work for usePower(); startOfDay is true in the first
+  // timeslot of the day, when the daily usage counter is reset.
+  // Transactions are added to batch, or posted one at a time if batch
+  // is null.
+  private void usePower (double kwh, boolean startOfDay,
+                         TariffTransactionBatch batch)
+  {
     // do economic control first
+    double cumulativeUsage = getTotalUsage();
     double kWhPerMember = kwh / customersCommitted;
     double actualKwh =
-      (kWhPerMember - getEconomicRegulation(kWhPerMember, totalUsage))
+      (kWhPerMember - getEconomicRegulation(kWhPerMember, cumulativeUsage))
           * customersCommitted;
     log.info("usePower " + kwh + ", actual " + actualKwh + 
              ", customer=" + customer.getName());
     // generate the usage transaction
     TariffTransaction.Type txType =
         actualKwh < 0 ? TariffTransaction.Type.PRODUCE: TariffTransaction.Type.CONSUME;
-    getAccounting().addTariffTransaction(txType, tariff,
-        customer, customersCommitted, -actualKwh,
-        customersCommitted * -tariff.getUsageCharge(actualKwh / customersCommitted, totalUsage, true));
-    if (getTimeService().getHourOfDay() == 0) {
+    postTariffTransaction(batch, txType, -actualKwh,
+        customersCommitted * -tariff.getUsageCharge(actualKwh / customersCommitted, cumulativeUsage, true));
+    if (startOfDay) {
       //reset the daily usage counter
-      totalUsage = 0.0;
+      totalUsage.set(Double.doubleToRawLongBits(actualKwh / customersCommitted));
+    }
+    else {
+      addAndGet(totalUsage, actualKwh / customersCommitted);
     }
-    totalUsage += actualKwh / customersCommitted;
     // generate the periodic payment if necessary
     if (tariff.getPeriodicPayment() != 0.0) {
-      getAccounting().addTariffTransaction(TariffTransaction.Type.PERIODIC,
-          tariff, customer, customersCommitted, 0.0,
+      postTariffTransaction(batch, TariffTransaction.Type.PERIODIC, 0.0,
           customersCommitted * -tariff.getPeriodicPayment() / 24.0);
     }
   }
 
+  // Posts a transaction for this subscription, or adds it to batch
+  private void postTariffTransaction (TariffTransactionBatch batch,
+                                      TariffTransaction.Type txType,
+                                      double kwh, double charge)
+  {
+    if (null == batch)
+      getAccounting().addTariffTransaction(txType, tariff, customer,
+                                           customersCommitted, kwh, charge);
+    else
+      batch.add(txType, tariff, customer, customersCommitted, kwh, charge);
+  }
+
   /**
    * Returns the regulation in aggregate kwh for the previous timeslot. 
    * Intended to be called by Customer models only. Value is non-negative for
@@ -334,14 +395,13 @@ public class TariffSubscription
    * a per-member value, while this method returns an aggregate value.
    */
   @Deprecated
-  public synchronized double getCurtailment ()
+  public double getCurtailment ()
   {
     double sgn = 1.0;
     if (tariff.getPowerType().isProduction())
       sgn = -1.0;
-    double result = sgn * Math.max(sgn * regulation, 0.0) * customersCommitted;
-    regulation = 0.0;
-    return result;
+    return sgn * Math.max(sgn * getAndReset(regulation), 0.0)
+        * customersCommitted;
   }
 
   /**
@@ -354,32 +414,38 @@ public class TariffSubscription
    * Intended to be called by customer models. This method is not idempotent,
    * because the regulation quantity is reset to zero after it's accessed.
    */
-  public synchronized double getRegulation ()
+  public double getRegulation ()
   {
-    double result = regulation;
-    regulation = 0.0;
-    return result;
+    return getAndReset(regulation);
   }
 
   /**
    * Communicates the ability of the customer model to handle regulation
-   * requests. Quantities are per-member.
+   * requests. Quantities are per-member. A null capacity resets both
+   * quantities to zero.
    */
   @StateChange
   public void setRegulationCapacity (RegulationCapacity capacity)
   {
-    regulationCapacity = capacity;
+    if (null == capacity) {
+      upRegulationCapacity.set(0L);
+      downRegulationCapacity.set(0L);
+      return;
+    }
+    upRegulationCapacity.set(Double.doubleToRawLongBits(capacity
+        .getUpRegulationCapacity()));
+    downRegulationCapacity.set(Double.doubleToRawLongBits(capacity
+        .getDownRegulationCapacity()));
   }
   
   /**
-   * Ensures that regulationCapacity is non-null -
-   * needed for non-regulatable customer models
+   * Formerly ensured that regulation capacity was defined for
+   * non-regulatable customer models.
+   * @deprecated Capacity is zero until it is set, so calls can be removed.
    */
+  @Deprecated
   public void ensureRegulationCapacity ()
   {
-    if (null == regulationCapacity) {
-      regulationCapacity = new RegulationCapacity(this, 0.0, 0.0);
-    }
   }
 
   /**
@@ -422,47 +488,55 @@ public class TariffSubscription
   double getEconomicRegulation (double proposedUsage, double cumulativeUsage)
   {
     // reset the regulation qty here
-    regulation = 0.0;
+    getAndReset(regulation);
+    double ratio = getAndReset(pendingRegulationRatio);
     double result = 0.0;
+    long current;
     if (getTariff().hasRegulationRate()) {
-      if (pendingRegulationRatio < 0.0) {
+      if (ratio < 0.0) {
         // down-regulation - negative result
-        result =
-          (-pendingRegulationRatio)
-              * regulationCapacity.getDownRegulationCapacity();
-        regulationCapacity.setDownRegulationCapacity(regulationCapacity
-            .getDownRegulationCapacity() - result);
+        do {
+          current = downRegulationCapacity.get();
+          double down = Double.longBitsToDouble(current);
+          result = (-ratio) * down;
+        } while (!updateCapacity(downRegulationCapacity, current,
+                                 Double.longBitsToDouble(current) - result));
       }
-      else if (pendingRegulationRatio > 1.0) {
+      else if (ratio > 1.0) {
         // discharge: between proposed usage and up-regulation capacity
-        if (regulationCapacity.getUpRegulationCapacity() > proposedUsage) {
-          double excess =
-            regulationCapacity.getUpRegulationCapacity() - proposedUsage;
-          result =
-            proposedUsage + (pendingRegulationRatio - 1.0) * excess;
-          regulationCapacity.setUpRegulationCapacity(regulationCapacity
-              .getUpRegulationCapacity() - result);
-        }
+        do {
+          current = upRegulationCapacity.get();
+          double up = Double.longBitsToDouble(current);
+          if (up <= proposedUsage) {
+            result = 0.0;
+            break;
+          }
+          double excess = up - proposedUsage;
+          result = proposedUsage + (ratio - 1.0) * excess;
+        } while (!updateCapacity(upRegulationCapacity, current,
+                                 Double.longBitsToDouble(current) - result));
       }
       else {
         // curtailment based on regulation capacity
-        result =
-          pendingRegulationRatio * regulationCapacity.getUpRegulationCapacity();
-        regulationCapacity.setUpRegulationCapacity(regulationCapacity
-            .getUpRegulationCapacity() - result);
+        do {
+          current = upRegulationCapacity.get();
+          result = ratio * Double.longBitsToDouble(current);
+        } while (!updateCapacity(upRegulationCapacity, current,
+                                 Double.longBitsToDouble(current) - result));
       }
     }
     else {
       // find the minimum of what's asked for and what's allowed.
-      double proposedUpRegulation = proposedUsage * pendingRegulationRatio;
+      double proposedUpRegulation = proposedUsage * ratio;
       double mur = tariff.getMaxUpRegulation(proposedUsage, cumulativeUsage);
       result = Math.min(proposedUpRegulation, mur);
       log.debug("proposedUpRegulation=" + proposedUpRegulation
                 + ", maxUpRegulation=" + mur);
-      regulationCapacity.setUpRegulationCapacity(mur - result);
+      do {
+        current = upRegulationCapacity.get();
+      } while (!updateCapacity(upRegulationCapacity, current, mur - result));
     }
     addRegulation(result); // saved until next timeslot
-    pendingRegulationRatio = 0.0;
     return result;
   }
 
@@ -473,9 +547,9 @@ public class TariffSubscription
    * current timeslot.
    */
   @StateChange
-  public synchronized void postRatioControl (double ratio)
+  public void postRatioControl (double ratio)
   {
-    pendingRegulationRatio = ratio;
+    pendingRegulationRatio.set(Double.doubleToRawLongBits(ratio));
   }
 
   /**
@@ -488,7 +562,7 @@ public class TariffSubscription
    * per-member value.
    */
   @StateChange
-  public synchronized void postBalancingControl (double kwh)
+  public void postBalancingControl (double kwh)
   {
     // issue compensating tariff transaction
     TariffTransaction.Type txType =
@@ -498,19 +572,19 @@ public class TariffSubscription
         customer, customersCommitted, kwh,
         customersCommitted *
           tariff.getRegulationCharge(-kwh / customersCommitted, 
-                                     totalUsage, true));
+                                     getTotalUsage(), true));
     double kWhPerMember = kwh / customersCommitted; 
     addRegulation(kWhPerMember);
-    if (kWhPerMember >= 0.0) {
-      // up-regulation
-      regulationCapacity.setUpRegulationCapacity(regulationCapacity
-          .getUpRegulationCapacity() - kWhPerMember);
-    }
-    else {
-      regulationCapacity.setDownRegulationCapacity(regulationCapacity
-          .getDownRegulationCapacity() - kWhPerMember);
-    }
-    totalUsage -= kWhPerMember;
+    // up-regulation uses up-regulation capacity, down-regulation uses
+    // down-regulation capacity
+    AtomicLong capacity =
+        (kWhPerMember >= 0.0) ? upRegulationCapacity : downRegulationCapacity;
+    long current;
+    do {
+      current = capacity.get();
+    } while (!updateCapacity(capacity, current,
+                             Double.longBitsToDouble(current) - kWhPerMember));
+    addAndGet(totalUsage, -kWhPerMember);
   }
 
   /**
@@ -525,10 +599,10 @@ public class TariffSubscription
   public RegulationCapacity getRemainingRegulationCapacity ()
   {
     // generate aggregate value here
-    double up =
-      regulationCapacity.getUpRegulationCapacity() * customersCommitted;
-    double down =
-      regulationCapacity.getDownRegulationCapacity() * customersCommitted;
+    double up = Double.longBitsToDouble(upRegulationCapacity.get())
+        * customersCommitted;
+    double down = Double.longBitsToDouble(downRegulationCapacity.get())
+        * customersCommitted;
     if (0 == pendingUnsubscribeCount) {
       log.info("regulation capacity for " + getCustomer().getName()
                + " (" + up + ", " + down + ")");
@@ -553,7 +627,44 @@ public class TariffSubscription
    */
   void addRegulation (double kwh)
   {
-    regulation += kwh;
+    addAndGet(regulation, kwh);
+  }
+
+  // Adds delta to a double held as raw bits in an AtomicLong, and returns
+  // the new value. Retries until no other thread has intervened.
+  private static double addAndGet (AtomicLong target, double delta)
+  {
+    while (true) {
+      long current = target.get();
+      double next = Double.longBitsToDouble(current) + delta;
+      if (target.compareAndSet(current, Double.doubleToRawLongBits(next)))
+        return next;
+    }
+  }
+
+  // Replaces a regulation capacity held as raw bits, if it still holds the
+  // expected bits. The value is filtered as RegulationCapacity's setters
+  // filter it: small values become zero, and a value of the wrong sign
+  // leaves the capacity unchanged. Returns false if another thread has
+  // intervened.
+  private boolean updateCapacity (AtomicLong capacity, long expected,
+                                  double value)
+  {
+    if (Math.abs(value) < 1e-4)
+      value = 0.0;
+    if (capacity == upRegulationCapacity ? value < 0.0 : value > 0.0) {
+      log.warn("Attempt to set " + (capacity == upRegulationCapacity
+                                    ? "negative up" : "positive down")
+               + "-regulation capacity " + value);
+      return capacity.get() == expected;
+    }
+    return capacity.compareAndSet(expected, Double.doubleToRawLongBits(value));
+  }
+
+  // Returns a double held as raw bits in an AtomicLong, and resets it to zero
+  private static double getAndReset (AtomicLong target)
+  {
+    return Double.longBitsToDouble(target.getAndSet(0L));
   }
 
   // ================= access to Spring components =======================
@@ -586,44 +697,112 @@ public class TariffSubscription
    */
   public int getExpiredCustomerCount ()
   {
-    int cc = 0;
-    Instant today =
-            getTimeService().truncateInstant(getTimeService().getCurrentTime(),
-                                             TimeService.DAY);
-    for (ExpirationRecord exp : expirations) {
-      if (exp.getHorizon() <= today.getMillis()) {
-        cc += exp.getCount();
-      }
+    return expirations.getExpiredCount(getCurrentDay());
+  }
+
+  // Returns the start of the current day in millis. The truncation is
+  // done only when the current time has moved out of the cached day.
+  private long getCurrentDay ()
+  {
+    Instant now = getTimeService().getCurrentTime();
+    long millis = now.getMillis();
+    if (millis < currentDay || millis >= currentDay + TimeService.DAY) {
+      currentDay =
+          getTimeService().truncateInstant(now, TimeService.DAY).getMillis();
     }
-    return cc;
+    return currentDay;
   }
 
-  private class ExpirationRecord
+  /**
+   * Ring buffer of [horizon, count] pairs, oldest first, along with the
+   * number of customers whose horizon has passed. Horizons are
+   * non-decreasing, so the expired entries always form a prefix of the
+   * queue, and each entry is examined once as the days go by. That keeps
+   * both the expired-count query and removal from the front O(1) amortized.
+   */
+  private static class ExpirationQueue
   {
-    private long horizon;
-    private int count;
+    private long[] horizons = new long[4];
+    private int[] counts = new int[4];
+    private int head = 0;
+    private int size = 0;
+
+    // the first expiredEntries entries have horizons at or before day,
+    // and hold expiredCount customers
+    private long day = Long.MIN_VALUE;
+    private int expiredEntries = 0;
+    private int expiredCount = 0;
+
+    void add (long horizon, int count)
+    {
+      if (size > 0 && horizons[slot(size - 1)] == horizon) {
+        // update existing entry
+        counts[slot(size - 1)] += count;
+        if (expiredEntries == size)
+          expiredCount += count;
+        return;
+      }
+      // need a new entry
+      if (size == horizons.length)
+        grow();
+      horizons[slot(size)] = horizon;
+      counts[slot(size)] = count;
+      size += 1;
+    }
 
-    ExpirationRecord (long horizon, int count)
+    int getExpiredCount (long today)
     {
-      super();
-      this.horizon = horizon;
-      this.count = count;
+      if (today < day) {
+        // clock went backward, start over
+        expiredEntries = 0;
+        expiredCount = 0;
+      }
+      day = today;
+      while (expiredEntries < size
+             && horizons[slot(expiredEntries)] <= today) {
+        expiredCount += counts[slot(expiredEntries)];
+        expiredEntries += 1;
+      }
+      return expiredCount;
     }
 
-    long getHorizon ()
+    // Removes up to customerCount customers, oldest first
+    void removeOldest (int customerCount)
     {
-      return horizon;
+      while (customerCount > 0 && size > 0) {
+        int cec = counts[head];
+        int removed = Math.min(cec, customerCount);
+        customerCount -= removed;
+        if (expiredEntries > 0)
+          expiredCount -= removed;
+        if (cec == removed) {
+          if (expiredEntries > 0)
+            expiredEntries -= 1;
+          head = slot(1);
+          size -= 1;
+        }
+        else {
+          counts[head] = cec - removed;
+        }
+      }
     }
-    
-    int getCount ()
+
+    private int slot (int offset)
     {
-      return count;
+      return (head + offset) % horizons.length;
     }
 
-    int updateCount (int increment)
+    private void grow ()
     {
-      count += increment;
-      return count;
+      long[] newHorizons = new long[horizons.length * 2];
+      int[] newCounts = new int[counts.length * 2];
+      for (int i = 0; i < size; i++) {
+        newHorizons[i] = horizons[slot(i)];
+        newCounts[i] = counts[slot(i)];
+      }
+      horizons = newHorizons;
+      counts = newCounts;
+      head = 0;
     }
   }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.util.Arrays;
+
+/**
+ * The arguments of a sequence of Accounting.addTariffTransaction() calls,
+ * held in parallel arrays so they can be posted together with
+ * Accounting.addTariffTransactions(). This is not a domain type; the
+ * transactions themselves are created by Accounting when the batch is
+ * posted.
+ */
+public class TariffTransactionBatch
+{
+  private int size = 0;
+  private TariffTransaction.Type[] txTypes;
+  private Tariff[] tariffs;
+  private CustomerInfo[] customers;
+  private int[] customerCounts;
+  private double[] kWh;
+  private double[] charges;
+
+  public TariffTransactionBatch (int capacity)
+  {
+    super();
+    capacity = Math.max(1, capacity);
+    txTypes = new TariffTransaction.Type[capacity];
+    tariffs = new Tariff[capacity];
+    customers = new CustomerInfo[capacity];
+    customerCounts = new int[capacity];
+    kWh = new double[capacity];
+    charges = new double[capacity];
+  }
+
+  /**
+   * Appends the arguments of one addTariffTransaction() call.
+   */
+  public TariffTransactionBatch add (TariffTransaction.Type txType,
+                                     Tariff tariff, CustomerInfo customer,
+                                     int customerCount, double kWh,
+                                     double charge)
+  {
+    if (size == txTypes.length) {
+      int capacity = size * 2;
+      txTypes = Arrays.copyOf(txTypes, capacity);
+      tariffs = Arrays.copyOf(tariffs, capacity);
+      customers = Arrays.copyOf(customers, capacity);
+      customerCounts = Arrays.copyOf(customerCounts, capacity);
+      this.kWh = Arrays.copyOf(this.kWh, capacity);
+      charges = Arrays.copyOf(charges, capacity);
+    }
+    txTypes[size] = txType;
+    tariffs[size] = tariff;
+    customers[size] = customer;
+    customerCounts[size] = customerCount;
+    this.kWh[size] = kWh;
+    charges[size] = charge;
+    size += 1;
+    return this;
+  }
+
+  public int size ()
+  {
+    return size;
+  }
+
+  public TariffTransaction.Type getTxType (int index)
+  {
+    return txTypes[checkIndex(index)];
+  }
+
+  public Tariff getTariff (int index)
+  {
+    return tariffs[checkIndex(index)];
+  }
+
+  public CustomerInfo getCustomer (int index)
+  {
+    return customers[checkIndex(index)];
+  }
+
+  public int getCustomerCount (int index)
+  {
+    return customerCounts[checkIndex(index)];
+  }
+
+  public double getKWh (int index)
+  {
+    return kWh[checkIndex(index)];
+  }
+
+  public double getCharge (int index)
+  {
+    return charges[checkIndex(index)];
+  }
+
+  private int checkIndex (int index)
+  {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+    return index;
+  }
+}
@@ -22,6 +22,7 @@ import org.powertac.common.DistributionTransaction;
 import org.powertac.common.MarketTransaction;
 import org.powertac.common.Tariff;
 import org.powertac.common.TariffTransaction;
+import org.powertac.common.TariffTransactionBatch;
 import org.powertac.common.Timeslot;
 
 /**
@@ -43,10 +44,11 @@ public interface Accounting
 {
   /**
    * Adds a market transaction that includes both a cash component and a product
-   * commitment for a specific timeslot.
+   * commitment for a specific timeslot. Arguments are in the same order as
+   * TransactionFactory.makeMarketTransaction().
    */
   public MarketTransaction addMarketTransaction (Broker broker, Timeslot timeslot,
-      double price, double mWh);
+      double mWh, double price);
 
   /**
    * Adds a tariff transaction to the current-day transaction list.
@@ -54,6 +56,15 @@ public interface Accounting
   public TariffTransaction addTariffTransaction (TariffTransaction.Type txType,
       Tariff tariff, CustomerInfo customer, int customerCount, double kWh,
       double charge);
+
+  /**
+   * Adds the tariff transactions in a batch, as calling
+   * addTariffTransaction() for each entry in order would, and returns them
+   * in the same order. Intended for customer models that post usage under
+   * several subscriptions at once.
+   */
+  public List<TariffTransaction>
+  addTariffTransactions (TariffTransactionBatch batch);
   
   /**
    * Adds a distribution transaction to represent charges for carrying power
@@ -72,19 +83,32 @@ public interface Accounting
   /**
    * Returns the current net load represented by unprocessed TariffTransactions
    * for a specific Broker. This is needed to run the balancing process.
+   * It is called repeatedly during balancing, so it must be answered in
+   * constant time from a total that is updated by addTariffTransaction(),
+   * for example with an org.powertac.common.ImbalanceLedger.
    */
   public double getCurrentNetLoad (Broker broker);
   
   /**
    * Returns a mapping of brokers to total supply and demand among subscribed
-   * customers.
+   * customers in the current timeslot. The result is a read-only
+   * snapshot; see org.powertac.common.SupplyDemandAggregate.
    */
   public Map<Broker, Map<TariffTransaction.Type, Double>>
   getCurrentSupplyDemandByBroker ();
 
+  /**
+   * Returns the total kWh of the current timeslot's tariff transactions
+   * of the given type for a specific Broker.
+   */
+  public double getCurrentSupplyDemand (Broker broker,
+                                        TariffTransaction.Type type);
+
   /**
    * Returns the market position for the current timeslot for a given broker.
-   * Needed to run the balancing process.
+   * Needed to run the balancing process. Like getCurrentNetLoad(), it must
+   * be answered in constant time, from a total that is updated by
+   * addMarketTransaction().
    */
   public double getCurrentMarketPosition (Broker broker);
   
@@ -94,6 +118,20 @@ public interface Accounting
    * tariff transactions, and before the accounting service has run.
    */
   public List<TariffTransaction> getPendingTariffTransactions ();
+
+  /**
+   * Passes each pending tariff transaction for the current timeslot that
+   * matches the given broker, type, and customer to the visitor, in the
+   * order the transactions were added. A null filter argument matches any
+   * value. Transactions are visited in place, so consumers that need only
+   * a subset of them need not copy or scan the full list. Transactions
+   * added by the visitor itself are not visited. Returns the number of
+   * transactions visited.
+   */
+  public int visitPendingTariffTransactions (TariffTransactionVisitor visitor,
+                                             Broker broker,
+                                             TariffTransaction.Type type,
+                                             CustomerInfo customer);
   
   /**
    * Runs the accounting process. This needs to be here to support some tests
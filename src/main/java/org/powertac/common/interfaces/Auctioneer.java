@@ -16,6 +16,9 @@
 
 package org.powertac.common.interfaces;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import org.powertac.common.Order;
 
 /**
@@ -32,6 +35,12 @@ public interface Auctioneer
    */
   public void processOrder (Order order); // throws ShoutCreationException;
 
+  /**
+   * Processes a batch of incoming orders, with the same effect as calling
+   * processOrder() on each in turn.
+   */
+  public void processOrders (List<Order> orders);
+
   /**
    * Clears the market by matching all Orders that have arrived since the
    * last market clearing. Resulting transactions are created by calling 
@@ -39,4 +48,14 @@ public interface Auctioneer
    * ClearedTrade instances are also created and broadcast to brokers.
    */
   public void clearMarket();
+
+  /**
+   * Clears the market as clearMarket() does, but clears the independent
+   * timeslot markets concurrently on the given executor. Transactions and
+   * broker messages are still created in timeslot order on the calling
+   * thread, so the results are identical to sequential clearing. If a
+   * timeslot fails to clear, nothing is published and the failure is
+   * thrown to the caller.
+   */
+  public void clearMarket (ExecutorService executor);
 }
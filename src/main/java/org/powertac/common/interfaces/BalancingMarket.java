@@ -27,7 +27,9 @@ import org.powertac.common.Broker;
 public interface BalancingMarket
 {
   /**
-   * Returns the market balance for a given broker.
+   * Returns the market balance for a given broker. Implementations can
+   * keep balances current as transactions arrive with
+   * org.powertac.common.ImbalanceLedger.
    */
   public double getMarketBalance (Broker broker);
 
@@ -19,6 +19,9 @@ import java.util.List;
 
 /**
  * Object that collects bootstrap data for initializing brokers.
+ * Collectors with a large amount of data should implement
+ * ChunkedBootstrapDataCollector, so their data can be generated in
+ * parallel and streamed to the boot record.
  * @author John Collins
  */
 public interface BootstrapDataCollector
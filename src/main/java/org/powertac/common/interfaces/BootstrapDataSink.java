@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.interfaces;
+
+import java.util.List;
+
+/**
+ * Receives bootstrap data as it is collected, typically to write it
+ * straight into the boot record.
+ */
+public interface BootstrapDataSink
+{
+  /**
+   * Called with each chunk of bootstrap messages, in boot record order.
+   * Calls are made from a single thread.
+   */
+  public void write (List<Object> messages);
+}
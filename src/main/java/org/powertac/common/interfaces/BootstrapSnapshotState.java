@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.interfaces;
+
+import org.powertac.common.BootstrapSnapshot;
+
+/**
+ * Implementers of this interface, typically services or repos that hold
+ * bulky bootstrap state, save that state in the binary bootstrap snapshot
+ * rather than in the XML boot record, and restore it from the snapshot
+ * at the beginning of the corresponding sim session.
+ */
+public interface BootstrapSnapshotState
+{
+  /**
+   * Adds state to the snapshot at the conclusion of a bootstrap session.
+   * Section names must be unique across all implementers.
+   */
+  public void saveBootstrapSnapshot (BootstrapSnapshot.Writer writer);
+
+  /**
+   * Restores state saved by saveBootstrapSnapshot() at the beginning of
+   * a sim session.
+   */
+  public void restoreBootstrapSnapshot (BootstrapSnapshot snapshot);
+}
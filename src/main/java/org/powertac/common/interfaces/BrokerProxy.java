@@ -56,17 +56,23 @@ public interface BrokerProxy {
   public void routeMessage (Object message);
   
   /**
-   * Sets up a dispatch listener for market messages
+   * Sets up a dispatch listener for market messages. The listener must
+   * have a public handleMessage() method that accepts msgType; it will
+   * also receive subclasses of msgType.
+   * See org.powertac.common.MessageDispatchTable.
    */
   public void registerBrokerMessageListener (Object listener, Class<?> msgType);
 
   /**
-   * Holds up message transmission when true
+   * Holds up message transmission when true. While held, all messages
+   * bound for a broker are coalesced into a single envelope, and each
+   * broadcast message is serialized only once.
+   * See org.powertac.common.OutboundMessageBatcher.
    */
   public void setDeferredBroadcast (boolean b);
 
   /**
-   * Sends deferred messages
+   * Sends deferred messages, one envelope per broker
    */
   public void broadcastDeferredMessages ();
 }
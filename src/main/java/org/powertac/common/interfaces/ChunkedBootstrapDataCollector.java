@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.interfaces;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * BootstrapDataCollector that can split its work into independent chunks,
+ * for example one per customer or per PowerType, so the chunks can be
+ * generated in parallel and streamed to the boot record one at a time.
+ * See org.powertac.common.BootstrapDataStreamer.
+ */
+public interface ChunkedBootstrapDataCollector extends BootstrapDataCollector
+{
+  /**
+   * Returns one task per chunk of bootstrap data. Each task returns its
+   * chunk's messages; concatenated in list order, the chunks must equal
+   * the result of collectBootstrapData(maxTimeslots). Tasks may run
+   * concurrently, so they must not share mutable state.
+   */
+  public List<Callable<List<Object>>> getBootstrapDataTasks (int maxTimeslots);
+}
@@ -64,4 +64,16 @@ public interface CustomerModelAccessor
    * evaluate tariffs or not.
    */
   public double getInertiaSample();
+
+  /**
+   * Fills both arrays with samples for one tariff evaluation of a population
+   * split into inertiaSamples.length chunks. For each chunk in turn, draws
+   * an inertia sample as getInertiaSample() would, then a choice sample as
+   * getTariffChoiceSample() would. The draws must be made in exactly this
+   * order, so that an accessor backing both kinds of sample with a single
+   * generator sees the same sequence as per-chunk calls to the scalar
+   * methods. Both arrays have the same length.
+   */
+  public void getTariffEvaluationSamples (double[] inertiaSamples,
+                                          double[] choiceSamples);
 }
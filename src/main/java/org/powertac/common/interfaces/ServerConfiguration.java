@@ -18,6 +18,8 @@ package org.powertac.common.interfaces;
 import java.util.Collection;
 import java.util.List;
 
+import org.powertac.common.BootstrapSnapshot;
+
 /**
  * Support for annotation-driven configuration. Configurable services, including
  * services that create configurable instances (such as gencos or customer models),
@@ -69,4 +71,17 @@ public interface ServerConfiguration
    * saved in the boot record.
    */
   public void saveBootstrapState (Object thing);
+
+  /**
+   * Returns the writer for the binary bootstrap snapshot at the end of a
+   * boot session, or null if no snapshot is being recorded. The snapshot
+   * is written out along with the boot record.
+   */
+  public BootstrapSnapshot.Writer getBootstrapSnapshotWriter ();
+
+  /**
+   * Returns the binary bootstrap snapshot for a sim session, or null if
+   * the boot record has none.
+   */
+  public BootstrapSnapshot getBootstrapSnapshot ();
 }
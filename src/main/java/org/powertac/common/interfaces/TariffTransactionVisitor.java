@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.interfaces;
+
+import org.powertac.common.TariffTransaction;
+
+/**
+ * Implementors of this interface can process pending tariff transactions
+ * in place by calling visitPendingTariffTransactions() on Accounting,
+ * without a copy of the pending list.
+ */
+public interface TariffTransactionVisitor
+{
+  /**
+   * Called once for each pending transaction that matches the filter,
+   * in the order the transactions were added.
+   */
+  void visit (TariffTransaction tx);
+}
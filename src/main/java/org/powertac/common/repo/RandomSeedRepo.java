@@ -15,16 +15,28 @@
  */
 package org.powertac.common.repo;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.RandomStream;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -35,6 +47,15 @@ import org.springframework.stereotype.Repository;
  * existing game, in which case the same random sequences will be repeated
  * in the current game. Otherwise they are created with random starting 
  * points when requested.
+ * <p>
+ * Because extracting the seeds from a full state log can take a while, the
+ * seeds can also be saved to a compact binary seed index with
+ * <code>saveSeedIndex()</code> and restored with
+ * <code>loadSeedIndex()</code>. The repo does not write the index itself.
+ * The component that ends a game and closes its state log is expected to
+ * call <code>saveSeedIndex()</code> before the repos are recycled, and a
+ * tool that loads seeds from an old log may call it to keep a faster copy.
+ * </p>
  * 
  * @author John Collins
  */
@@ -42,15 +63,40 @@ import org.springframework.stereotype.Repository;
 public class RandomSeedRepo implements DomainRepo
 {
   static private Logger log = Logger.getLogger(RandomSeedRepo.class.getName());
-  
-  private HashMap<String, RandomSeed> seedMap;
-  private HashMap<String, Long> pendingSeedMap;
+
+  static private Charset charset = Charset.forName("UTF-8");
+
+  // state log records for seeds start with this, after the timestamp
+  private static final String seedPrefix = RandomSeed.class.getName() + "::";
+  private static final byte[] seedPrefixBytes = seedPrefix.getBytes(charset);
+
+  // size of the region of a state log mapped at one time
+  private int mapWindowSize = 64 * 1024 * 1024;
+
+  // seed index header
+  private static final int indexMagic = 0x50544149; // "PTAI"
+  // version 2 added a presence flag ahead of the purpose, which may be null
+  private static final int indexVersion = 2;
+
+  // read without locking by getRandomSeed(), written under the repo lock
+  private ConcurrentHashMap<SeedKey, RandomSeed> seedMap;
+  private HashMap<SeedKey, Long> pendingSeedMap;
+
+  // reusable lookup key for each thread, so that finding an existing seed
+  // allocates nothing and concurrent lookups never share a mutable key
+  private final ThreadLocal<SeedKey> probe = new ThreadLocal<SeedKey>() {
+    @Override
+    protected SeedKey initialValue ()
+    {
+      return new SeedKey();
+    }
+  };
 
   public RandomSeedRepo ()
   {
     super();
-    seedMap = new HashMap<String, RandomSeed>();
-    pendingSeedMap = new HashMap<String, Long>();
+    seedMap = new ConcurrentHashMap<SeedKey, RandomSeed>();
+    pendingSeedMap = new HashMap<SeedKey, Long>();
   }
 
   /**
@@ -59,40 +105,80 @@ public class RandomSeedRepo implements DomainRepo
    */
   public RandomSeed getRandomSeed (String classname, long id, String purpose)
   {
-    log.info("Seed requested: " + classname + ";" +
-             id + ";" + purpose);
-    String name = composeName(classname, id, purpose);
-    RandomSeed result = seedMap.get(name);
-    if (null == result) {
-      // try getting the seed from the pending map
-      Long seedValue = pendingSeedMap.get(name);
-      if (null == seedValue) {
-        // create a new one
-        log.debug("New seed created: " + classname + ";" +
-                id + ";" + purpose);
-        result = new RandomSeed(classname, id, purpose);
-      }
-      else {
-        log.info("Stored seed " + seedValue + " retrieved for " + name);
-        result = new RandomSeed(classname, id, purpose, seedValue);
-      }
-      seedMap.put(name, result);
+    SeedKey lookup = probe.get().set(classname, id, purpose);
+    RandomSeed result = seedMap.get(lookup);
+    if (null != result) {
+      if (log.isDebugEnabled())
+        log.debug("Seed from map for " + lookup);
+      return result;
+    }
+    return createRandomSeed(classname, id, purpose);
+  }
+
+  // Creates and records a seed on a map miss. Creation is serialized so
+  // that each seed is created once; another thread may have created this
+  // one since the lock-free lookup, so check again under the lock.
+  private synchronized RandomSeed
+  createRandomSeed (String classname, long id, String purpose)
+  {
+    SeedKey key = new SeedKey(classname, id, purpose);
+    RandomSeed result = seedMap.get(key);
+    if (null != result)
+      return result;
+    // try getting the seed from the pending map
+    Long seedValue = pendingSeedMap.get(key);
+    if (null == seedValue) {
+      // create a new one
+      log.info("New seed created: " + key);
+      result = new RandomSeed(classname, id, purpose);
     }
     else {
-      log.info("Seed from map for " + name);
+      log.info("Stored seed " + seedValue + " retrieved for " + key);
+      result = new RandomSeed(classname, id, purpose, seedValue);
     }
+    seedMap.put(key, result);
     return result;
   }
   
+  /**
+   * Returns a new RandomStream rooted at the RandomSeed identified by
+   * classname, id, and purpose. The seed is created or replayed exactly as
+   * in getRandomSeed(), so the stream and all of its substreams are
+   * reproduced when the game is replayed. Each call returns a fresh stream
+   * positioned at the start of the sequence; use split(), substream(),
+   * or jump() to give each worker thread its own stream.
+   */
+  public RandomStream getRandomStream (String classname, long id,
+                                       String purpose)
+  {
+    return new RandomStream(getRandomSeed(classname, id, purpose).getValue());
+  }
+
   /**
    * Pre-loads seeds from an existing server logfile, or from a stripped-down
-   * logfile containing only the RandomSeed lines.
+   * logfile containing only the RandomSeed lines. The file is memory-mapped
+   * and scanned for RandomSeed records; other lines are skipped without
+   * being decoded.
    */
   public void loadSeeds (File inputFile)
   throws FileNotFoundException
   {
-    log.info("Loading seeds from file" + inputFile.getPath());
-    loadSeeds(new FileReader(inputFile));
+    log.info("Loading seeds from file " + inputFile.getPath());
+    RandomAccessFile input = new RandomAccessFile(inputFile, "r");
+    try {
+      scanSeeds(input.getChannel());
+    }
+    catch (IOException ioe) {
+      log.error("IOException reading seedfile:" + ioe.toString());
+    }
+    finally {
+      try {
+        input.close();
+      }
+      catch (IOException ioe) {
+        log.warn("Cannot close seedfile: " + ioe.toString());
+      }
+    }
   }
   
   
@@ -102,35 +188,17 @@ public class RandomSeedRepo implements DomainRepo
   public void loadSeeds (InputStreamReader reader)
   {
     BufferedReader input = new BufferedReader(reader);
-    String seedClass = RandomSeed.class.getName();
     try {
       String line;
       while ((line = input.readLine()) != null) {
-        log.debug("original line: " + line);
         // first, strip off the process time nnnn:
         int colon = line.indexOf(':');
         if (colon <= 0 || line.length() <= colon + 2) {
           log.warn("Malformed line " + line);
           break;
         }
-        line = line.substring(colon + 1);
-        String[] fields = line.split("::");
-        if (seedClass.equals(fields[0])) {
-          if (fields.length != 7) {
-            log.error("Bad seed spec: " + line);
-          }
-          else {
-            System.out.println("fields[3, 4, 5, 6]: " + fields[3]
-                    + "," + fields[4] + "," + fields[5] + "," + fields[6]);
-            //RandomSeed seed = new RandomSeed(fields[3],
-            //                                 Long.parseLong(fields[4]), 
-            //                                 fields[5],
-            //                                 Long.parseLong(fields[6]));
-            pendingSeedMap.put(composeName(fields[3], 
-                                           Long.parseLong(fields[4]),
-                                           fields[5]),
-                               Long.parseLong(fields[6]));
-          }
+        if (line.startsWith(seedPrefix, colon + 1)) {
+          addSeedRecord(line.substring(colon + 1));
         }
       }
     }
@@ -138,13 +206,205 @@ public class RandomSeedRepo implements DomainRepo
       log.error("IOException reading seedfile:" + ioe.toString());
     }
   }
+
+  // Maps the file one window at a time, starting each window at a line
+  // boundary. A window that holds no complete line is doubled.
+  private void scanSeeds (FileChannel channel) throws IOException
+  {
+    long size = channel.size();
+    long position = 0;
+    long window = mapWindowSize;
+    while (position < size) {
+      int length = (int)Math.min(window, size - position);
+      boolean atEnd = (position + length == size);
+      ByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      int consumed = scanLines(buffer, length, atEnd);
+      if (0 == consumed) {
+        window = Math.min(window * 2, Integer.MAX_VALUE);
+      }
+      else {
+        position += consumed;
+        window = mapWindowSize;
+      }
+    }
+  }
+
+  // Processes the complete lines in the buffer, and returns the number of
+  // bytes they occupy. If atEnd is true, the last line need not be
+  // terminated.
+  private int scanLines (ByteBuffer buffer, int length, boolean atEnd)
+  {
+    int start = 0;
+    while (start < length) {
+      // the record starts after the process time nnnn:
+      int colon = start;
+      while (colon < length && buffer.get(colon) != ':'
+             && buffer.get(colon) != '\n') {
+        colon += 1;
+      }
+      boolean isSeed = (colon < length && buffer.get(colon) == ':'
+                        && matchesSeedPrefix(buffer, colon + 1, length));
+      int end = colon;
+      while (end < length && buffer.get(end) != '\n') {
+        end += 1;
+      }
+      if (end == length && !atEnd) {
+        // incomplete line, leave it for the next window
+        break;
+      }
+      if (isSeed) {
+        addSeedRecord(decode(buffer, colon + 1, end));
+      }
+      start = end + 1;
+    }
+    return Math.min(start, length);
+  }
+
+  private boolean matchesSeedPrefix (ByteBuffer buffer, int offset,
+                                     int length)
+  {
+    if (offset + seedPrefixBytes.length > length)
+      return false;
+    for (int i = 0; i < seedPrefixBytes.length; i++) {
+      if (buffer.get(offset + i) != seedPrefixBytes[i])
+        return false;
+    }
+    return true;
+  }
+
+  private String decode (ByteBuffer buffer, int from, int to)
+  {
+    if (to > from && buffer.get(to - 1) == '\r')
+      to -= 1;
+    byte[] bytes = new byte[to - from];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(from + i);
+    }
+    return new String(bytes, charset);
+  }
+
+  // Records the seed in a state log record, without the process time
+  private void addSeedRecord (String record)
+  {
+    String[] fields = record.split("::");
+    if (fields.length != 7) {
+      log.error("Bad seed spec: " + record);
+    }
+    else {
+      pendingSeedMap.put(new SeedKey(fields[3], 
+                                     Long.parseLong(fields[4]),
+                                     fields[5]),
+                         Long.parseLong(fields[6]));
+    }
+  }
   
-  private String composeName (String classname, long id, String purpose)
+  /**
+   * Writes all known seeds to a binary seed index. This includes the seeds
+   * handed out in the current session, as well as any loaded seeds that
+   * have not yet been requested. The file can be read back with
+   * loadSeedIndex(). Call this before recycle(), which discards the seeds.
+   * Seed creation is held off while the index is written, so the entry
+   * count always matches the entries.
+   */
+  public synchronized void saveSeedIndex (File indexFile)
+  throws FileNotFoundException
   {
-    StringBuffer buf = new StringBuffer();
-    buf.append(classname).append(";").append(id).append(";").append(purpose);
-    return buf.toString();
+    log.info("Saving seed index to " + indexFile.getPath());
+    DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream
+                             (new FileOutputStream(indexFile)));
+    try {
+      output.writeInt(indexMagic);
+      output.writeInt(indexVersion);
+      int count = seedMap.size();
+      for (SeedKey key : pendingSeedMap.keySet()) {
+        if (!seedMap.containsKey(key))
+          count += 1;
+      }
+      output.writeInt(count);
+      // write the keys as requested: a seed replaces a null purpose with
+      // "unspecified", which would not match the request on replay
+      for (Map.Entry<SeedKey, RandomSeed> entry : seedMap.entrySet()) {
+        SeedKey key = entry.getKey();
+        writeIndexEntry(output, key.classname, key.id, key.purpose,
+                        entry.getValue().getValue());
+      }
+      for (Map.Entry<SeedKey, Long> entry : pendingSeedMap.entrySet()) {
+        SeedKey key = entry.getKey();
+        if (seedMap.containsKey(key))
+          continue;
+        writeIndexEntry(output, key.classname, key.id, key.purpose,
+                        entry.getValue());
+      }
+    }
+    catch (IOException ioe) {
+      log.error("IOException writing seed index:" + ioe.toString());
+    }
+    finally {
+      try {
+        output.close();
+      }
+      catch (IOException ioe) {
+        log.warn("Cannot close seed index: " + ioe.toString());
+      }
+    }
   }
+
+  /**
+   * Pre-loads seeds from a binary seed index written by saveSeedIndex().
+   */
+  public void loadSeedIndex (File indexFile)
+  throws FileNotFoundException
+  {
+    log.info("Loading seed index from " + indexFile.getPath());
+    DataInputStream input =
+        new DataInputStream(new BufferedInputStream
+                            (new FileInputStream(indexFile)));
+    try {
+      if (input.readInt() != indexMagic) {
+        log.error("Not a seed index: " + indexFile.getPath());
+        return;
+      }
+      int version = input.readInt();
+      if (version != indexVersion) {
+        log.error("Unsupported seed index version " + version);
+        return;
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String classname = input.readUTF();
+        long id = input.readLong();
+        String purpose = input.readBoolean() ? input.readUTF() : null;
+        long value = input.readLong();
+        pendingSeedMap.put(new SeedKey(classname, id, purpose), value);
+      }
+    }
+    catch (IOException ioe) {
+      log.error("IOException reading seed index:" + ioe.toString());
+    }
+    finally {
+      try {
+        input.close();
+      }
+      catch (IOException ioe) {
+        log.warn("Cannot close seed index: " + ioe.toString());
+      }
+    }
+  }
+
+  private void writeIndexEntry (DataOutputStream output, String classname,
+                                long id, String purpose, long value)
+  throws IOException
+  {
+    output.writeUTF(classname);
+    output.writeLong(id);
+    output.writeBoolean(null != purpose);
+    if (null != purpose)
+      output.writeUTF(purpose);
+    output.writeLong(value);
+  }
+
   
   public void recycle ()
   {
@@ -157,4 +417,68 @@ public class RandomSeedRepo implements DomainRepo
   {
     return seedMap.size();
   }
+
+  /**
+   * Identifies a seed by requester class, requester id, and purpose.
+   * Strings are interned when a key is created for storage, so comparisons
+   * between stored keys and most probes succeed on identity. Stored keys
+   * are never modified; only the per-thread probe keys are reused.
+   */
+  private static final class SeedKey
+  {
+    private String classname;
+    private long id;
+    private String purpose;
+    private int hash;
+
+    SeedKey ()
+    {
+      super();
+    }
+
+    SeedKey (String classname, long id, String purpose)
+    {
+      super();
+      set(classname.intern(), id, (null == purpose)? null: purpose.intern());
+    }
+
+    SeedKey set (String classname, long id, String purpose)
+    {
+      this.classname = classname;
+      this.id = id;
+      this.purpose = purpose;
+      int h = classname.hashCode();
+      h = 31 * h + (int)(id ^ (id >>> 32));
+      h = 31 * h + ((null == purpose)? 0: purpose.hashCode());
+      this.hash = h;
+      return this;
+    }
+
+    @Override
+    public int hashCode ()
+    {
+      return hash;
+    }
+
+    @Override
+    public boolean equals (Object obj)
+    {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof SeedKey))
+        return false;
+      SeedKey other = (SeedKey) obj;
+      return hash == other.hash
+          && id == other.id
+          && classname.equals(other.classname)
+          && (purpose == other.purpose
+              || (null != purpose && purpose.equals(other.purpose)));
+    }
+
+    @Override
+    public String toString ()
+    {
+      return classname + ";" + id + ";" + purpose;
+    }
+  }
 }
@@ -25,8 +25,12 @@ import org.apache.log4j.Logger;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.Tariff;
 import org.powertac.common.TariffSubscription;
+import org.powertac.common.TimeService;
+import org.powertac.common.interfaces.Accounting;
 import org.powertac.common.interfaces.TariffMarket;
+import org.powertac.common.spring.SpringApplicationContext;
 import org.powertac.util.Predicate;
+import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
@@ -47,8 +51,14 @@ public class TariffSubscriptionRepo implements DomainRepo
   @Autowired
   private TariffRepo tariffRepo;
 
-  //@Autowired
-  //private TariffMarket tariffMarketService;
+  // Services handed to each new subscription. These are looked up when the
+  // first subscription is created rather than autowired, because repos are
+  // created before the services that use them, and some contexts have no
+  // accounting or tariff market at all.
+  private TimeService timeService;
+  private Accounting accountingService;
+  private TariffMarket tariffMarketService;
+  private boolean servicesResolved = false;
 
   public TariffSubscriptionRepo ()
   {
@@ -78,11 +88,37 @@ public class TariffSubscriptionRepo implements DomainRepo
       // subscription exists
       return result;
     }
-    result = new TariffSubscription(customer, tariff);
+    if (!servicesResolved)
+      resolveServices();
+    result = new TariffSubscription(customer, tariff)
+        .withServices(timeService, accountingService, tariffMarketService);
     storeSubscription(result, customer, tariff);
     return result;
   }
 
+  // Finds the services for new subscriptions. A service missing from the
+  // context is left null, and the subscription looks it up when needed.
+  private void resolveServices ()
+  {
+    if (null == timeService)
+      timeService = (TimeService)findBean("timeService");
+    if (null == accountingService)
+      accountingService = (Accounting)findBean("accountingService");
+    if (null == tariffMarketService)
+      tariffMarketService = (TariffMarket)findBean("tariffMarketService");
+    servicesResolved = true;
+  }
+
+  private Object findBean (String name)
+  {
+    try {
+      return SpringApplicationContext.getBean(name);
+    }
+    catch (BeansException be) {
+      return null;
+    }
+  }
+
   /** Returns the list of subscriptions for a given tariff. */
   public List<TariffSubscription> findSubscriptionsForTariff (Tariff tariff)
   {
@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.List;
 
 import org.apache.log4j.Logger;
+import org.powertac.common.BootstrapSnapshot;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.IdGenerator;
 import org.powertac.common.RandomSeed;
@@ -100,6 +101,23 @@ public abstract class AbstractCustomer
   {
   }
 
+  /**
+   * Saves bulk model data, such as usage histories, to the binary bootstrap
+   * snapshot. Section names should start with the model name. Default
+   * implementation does nothing.
+   */
+  public void saveBootstrapSnapshot (BootstrapSnapshot.Writer writer)
+  {
+  }
+
+  /**
+   * Restores data saved by saveBootstrapSnapshot() at the start of a sim
+   * session. Called after initialize(). Default implementation does nothing.
+   */
+  public void restoreBootstrapSnapshot (BootstrapSnapshot snapshot)
+  {
+  }
+
   /**
    * Adds an additional CustomerInfo to the list
    */
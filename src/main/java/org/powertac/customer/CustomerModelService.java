@@ -22,10 +22,12 @@ import java.util.ServiceLoader;
 
 import org.apache.log4j.Logger;
 import org.joda.time.Instant;
+import org.powertac.common.BootstrapSnapshot;
 import org.powertac.common.Competition;
 import org.powertac.common.CustomerInfo;
 import org.powertac.common.Tariff;
 import org.powertac.common.TimeService;
+import org.powertac.common.interfaces.BootstrapSnapshotState;
 import org.powertac.common.interfaces.BootstrapState;
 import org.powertac.common.interfaces.CustomerServiceAccessor;
 import org.powertac.common.interfaces.InitializationService;
@@ -47,15 +49,17 @@ import org.springframework.stereotype.Service;
  * ConfigurableInstances. Each gets supplied a set of service interfaces.
  * In each timeslot, each model has its step() method called. When tariffs
  * are published, each has its evaluateTariffs() method called. At the end
- * of a boot session, each has its bootstrap state saved to the boot record.
+ * of a boot session, each has its bootstrap state saved to the boot record,
+ * and its bulk data to the binary bootstrap snapshot if one is being
+ * recorded.
  * 
  * @author John Collins
  */
 @Service
 public class CustomerModelService
 extends TimeslotPhaseProcessor
-implements InitializationService, BootstrapState, NewTariffListener,
-  CustomerServiceAccessor
+implements InitializationService, BootstrapState, BootstrapSnapshotState,
+  NewTariffListener, CustomerServiceAccessor
 {
   //static private Logger log =
   //    Logger.getLogger(CustomerModelService.class.getName());
@@ -131,6 +135,9 @@ implements InitializationService, BootstrapState, NewTariffListener,
         }
       }
     }
+    BootstrapSnapshot snapshot = serverConfig.getBootstrapSnapshot();
+    if (null != snapshot)
+      restoreBootstrapSnapshot(snapshot);
     return "Customer";
   }
 
@@ -167,6 +174,25 @@ implements InitializationService, BootstrapState, NewTariffListener,
       // some models have to save local state
       model.saveBootstrapState();
     }
+    BootstrapSnapshot.Writer writer = serverConfig.getBootstrapSnapshotWriter();
+    if (null != writer)
+      saveBootstrapSnapshot(writer);
+  }
+
+  @Override
+  public void saveBootstrapSnapshot (BootstrapSnapshot.Writer writer)
+  {
+    for (AbstractCustomer model : models) {
+      model.saveBootstrapSnapshot(writer);
+    }
+  }
+
+  @Override
+  public void restoreBootstrapSnapshot (BootstrapSnapshot snapshot)
+  {
+    for (AbstractCustomer model : models) {
+      model.restoreBootstrapSnapshot(snapshot);
+    }
   }
 
   // ==============================
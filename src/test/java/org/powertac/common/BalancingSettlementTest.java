@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for BalancingSettlement.
+ */
+public class BalancingSettlementTest
+{
+  private double pPlus = 0.05;
+  private double pPlusPrime = 0.0001;
+  private double pMinus = 0.01;
+  private double pMinusPrime = 0.0001;
+
+  private BalancingSettlement uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    uut = new BalancingSettlement(3);
+  }
+
+  private void settle ()
+  {
+    uut.settle(pPlus, pPlusPrime, pMinus, pMinusPrime);
+  }
+
+  @Test
+  public void testBalanced ()
+  {
+    uut.setImbalance(0, 100.0);
+    uut.setImbalance(1, -100.0);
+    settle();
+    assertEquals("no imbalance", 0.0, uut.getTotalImbalance(), 1e-9);
+    assertEquals("no external", 0.0, uut.getExternalRegulation(), 1e-9);
+    assertEquals("long paid", 100.0 * pPlus, uut.getCharge(0), 1e-9);
+    assertEquals("short pays", -100.0 * pPlus, uut.getCharge(1), 1e-9);
+  }
+
+  @Test
+  public void testExternalOnly ()
+  {
+    uut.setImbalance(0, -200.0);
+    settle();
+    double price = pPlus + 200.0 * pPlusPrime;
+    assertEquals("price", price, uut.getPrice(), 1e-9);
+    assertEquals("external", 200.0, uut.getExternalRegulation(), 1e-9);
+    assertEquals("charge", -200.0 * price, uut.getCharge(0), 1e-9);
+  }
+
+  @Test
+  public void testUpRegulation ()
+  {
+    uut.setImbalance(0, -150.0);
+    uut.addOffer(1, 100.0, 0.04);
+    uut.addOffer(2, 100.0, 0.045);
+    uut.addOffer(2, -100.0, 0.0);
+    settle();
+    // external regulation starts at 0.05, above both offers, so
+    // broker 1 supplies 100 and broker 2 the last 50
+    assertEquals("price", 0.045, uut.getPrice(), 1e-9);
+    assertEquals("broker 1 exercised", 100.0, uut.getExercised(1), 1e-9);
+    assertEquals("broker 2 exercised", 50.0, uut.getExercised(2), 1e-9);
+    assertEquals("no external", 0.0, uut.getExternalRegulation(), 1e-9);
+    assertEquals("broker 0 pays", -150.0 * 0.045, uut.getCharge(0), 1e-9);
+    assertEquals("broker 1 paid", 100.0 * 0.045, uut.getCharge(1), 1e-9);
+  }
+
+  @Test
+  public void testExternalBetweenOffers ()
+  {
+    uut.setImbalance(0, -150.0);
+    uut.addOffer(1, 100.0, 0.04);
+    uut.addOffer(2, 100.0, 0.08);
+    settle();
+    // after broker 1, external covers 50 kWh at 0.055 < 0.08
+    assertEquals("price", pPlus + 50.0 * pPlusPrime, uut.getPrice(), 1e-9);
+    assertEquals("broker 1 exercised", 100.0, uut.getExercised(1), 1e-9);
+    assertEquals("broker 2 not exercised", 0.0, uut.getExercised(2), 1e-9);
+    assertEquals("external", 50.0, uut.getExternalRegulation(), 1e-9);
+  }
+
+  @Test
+  public void testDownRegulation ()
+  {
+    uut.setImbalance(0, 100.0);
+    uut.addOffer(1, -50.0, 0.02);
+    uut.addOffer(2, -100.0, 0.01);
+    uut.addOffer(2, 100.0, 0.01);
+    settle();
+    // highest bidder first; the external bid is 0.01 at zero quantity
+    assertEquals("price", 0.01, uut.getPrice(), 1e-9);
+    assertEquals("broker 1 exercised", -50.0, uut.getExercised(1), 1e-9);
+    assertEquals("broker 2 exercised", -50.0, uut.getExercised(2), 1e-9);
+    assertEquals("long broker paid", 1.0, uut.getCharge(0), 1e-9);
+    assertEquals("broker 1 pays", -0.5, uut.getCharge(1), 1e-9);
+  }
+
+  @Test
+  public void testReset ()
+  {
+    uut.setImbalance(0, -100.0);
+    uut.addOffer(1, 100.0, 0.01);
+    settle();
+    uut.reset();
+    uut.setImbalance(0, -100.0);
+    settle();
+    assertEquals("offer gone", 0.0, uut.getExercised(1), 1e-9);
+    assertEquals("external", 100.0, uut.getExternalRegulation(), 1e-9);
+  }
+
+  // Settlement across broker and offer counts. The imbalance must be
+  // covered, and charges must balance against the external regulation.
+  @Test
+  public void testScaling ()
+  {
+    Random random = new Random(5);
+    for (int brokers : new int[] {5, 30, 100}) {
+      for (int offers : new int[] {10, 1000, 20000}) {
+        BalancingSettlement settlement = new BalancingSettlement(brokers);
+        for (int i = 0; i < brokers; i++) {
+          settlement.setImbalance(i, (random.nextDouble() - 0.55) * 2000.0);
+        }
+        for (int i = 0; i < offers; i++) {
+          double kWh = random.nextDouble() * 50.0;
+          if (random.nextBoolean())
+            settlement.addOffer(random.nextInt(brokers), kWh,
+                                0.02 + random.nextDouble() * 0.1);
+          else
+            settlement.addOffer(random.nextInt(brokers), -kWh,
+                                random.nextDouble() * 0.03);
+        }
+        settlement.settle(pPlus, pPlusPrime, pMinus, pMinusPrime);
+        double total = 0.0;
+        double exercised = 0.0;
+        for (int i = 0; i < brokers; i++) {
+          total += settlement.getCharge(i);
+          exercised += settlement.getExercised(i);
+        }
+        String label = brokers + " brokers, " + offers + " offers";
+        assertEquals(label + " covered", -settlement.getTotalImbalance(),
+                     exercised + settlement.getExternalRegulation(), 1e-6);
+        assertEquals(label + " balanced",
+                     -settlement.getExternalRegulation()
+                         * settlement.getPrice(),
+                     total, 1e-6);
+      }
+    }
+  }
+}
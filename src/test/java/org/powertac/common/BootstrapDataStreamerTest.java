@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.interfaces.BootstrapDataCollector;
+import org.powertac.common.interfaces.BootstrapDataSink;
+import org.powertac.common.interfaces.ChunkedBootstrapDataCollector;
+
+/**
+ * Test cases for BootstrapDataStreamer, with collectors that generate
+ * strings.
+ */
+public class BootstrapDataStreamerTest
+{
+  private ExecutorService executor;
+  private List<Object> written;
+  private volatile int chunksWritten;
+  private BootstrapDataSink sink;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    executor = Executors.newFixedThreadPool(4);
+    written = new ArrayList<Object>();
+    chunksWritten = 0;
+    sink = new BootstrapDataSink() {
+      @Override
+      public void write (List<Object> messages)
+      {
+        written.addAll(messages);
+        chunksWritten += 1;
+      }
+    };
+  }
+
+  @After
+  public void tearDown ()
+  {
+    executor.shutdown();
+  }
+
+  // one chunk per customer, one message per timeslot
+  class CustomerCollector implements ChunkedBootstrapDataCollector
+  {
+    int customers;
+    int failing = -1;
+    AtomicInteger started = new AtomicInteger(0);
+    AtomicInteger maxAhead = new AtomicInteger(0);
+
+    CustomerCollector (int customers)
+    {
+      super();
+      this.customers = customers;
+    }
+
+    List<Object> chunk (int customer, int maxTimeslots)
+    {
+      List<Object> result = new ArrayList<Object>();
+      for (int ts = 0; ts < maxTimeslots; ts++)
+        result.add("c" + customer + "-" + ts);
+      return result;
+    }
+
+    @Override
+    public List<Object> collectBootstrapData (int maxTimeslots)
+    {
+      List<Object> result = new ArrayList<Object>();
+      for (int i = 0; i < customers; i++)
+        result.addAll(chunk(i, maxTimeslots));
+      return result;
+    }
+
+    @Override
+    public List<Callable<List<Object>>>
+    getBootstrapDataTasks (final int maxTimeslots)
+    {
+      List<Callable<List<Object>>> result =
+          new ArrayList<Callable<List<Object>>>();
+      for (int i = 0; i < customers; i++) {
+        final int customer = i;
+        result.add(new Callable<List<Object>>() {
+          @Override
+          public List<Object> call () throws Exception
+          {
+            int ahead = started.incrementAndGet() - chunksWritten;
+            if (ahead > maxAhead.get())
+              maxAhead.set(ahead);
+            if (customer == failing)
+              throw new IllegalStateException("no data");
+            return chunk(customer, maxTimeslots);
+          }
+        });
+      }
+      return result;
+    }
+  }
+
+  @Test
+  public void testMatchesSequential () throws Exception
+  {
+    CustomerCollector customers = new CustomerCollector(200);
+    BootstrapDataCollector weather = new BootstrapDataCollector() {
+      @Override
+      public List<Object> collectBootstrapData (int maxTimeslots)
+      {
+        return Arrays.asList((Object)"w0", "w1");
+      }
+    };
+    List<BootstrapDataCollector> collectors =
+        new ArrayList<BootstrapDataCollector>();
+    collectors.add(weather);
+    collectors.add(customers);
+    collectors.add(weather);
+
+    List<Object> expected = new ArrayList<Object>();
+    for (BootstrapDataCollector collector : collectors)
+      expected.addAll(collector.collectBootstrapData(24));
+
+    BootstrapDataStreamer uut = new BootstrapDataStreamer(executor, sink);
+    assertEquals("count", expected.size(), uut.collect(collectors, 24));
+    assertEquals("same messages in order", expected, written);
+    assertEquals("one write per chunk", 202, chunksWritten);
+  }
+
+  @Test
+  public void testWindow () throws Exception
+  {
+    CustomerCollector customers = new CustomerCollector(100);
+    BootstrapDataStreamer uut =
+        new BootstrapDataStreamer(executor, sink).withWindow(3);
+    uut.collect(Arrays.asList(customers), 4);
+    assertEquals("all written", 400, written.size());
+    assertTrue("at most three chunks ahead",
+               customers.maxAhead.get() <= 3);
+  }
+
+  // a failed chunk must fail the whole collection, not leave a gap
+  @Test
+  public void testFailedChunk () throws Exception
+  {
+    CustomerCollector customers = new CustomerCollector(5);
+    customers.failing = 2;
+    BootstrapDataStreamer uut = new BootstrapDataStreamer(executor, sink);
+    try {
+      uut.collect(Arrays.asList(customers), 2);
+      fail("failed chunk not reported");
+    }
+    catch (ExecutionException ee) {
+      assertTrue("chunk failure",
+                 ee.getCause() instanceof IllegalStateException);
+    }
+    assertEquals("only chunks before the failure", 4, written.size());
+    assertEquals("last written", "c1-1", written.get(3));
+  }
+
+  // an interrupt must fail the collection, not return a partial count
+  @Test
+  public void testInterrupted () throws Exception
+  {
+    CustomerCollector customers = new CustomerCollector(5);
+    BootstrapDataStreamer uut = new BootstrapDataStreamer(executor, sink);
+    Thread.currentThread().interrupt();
+    try {
+      uut.collect(Arrays.asList(customers), 2);
+      fail("interrupt not reported");
+    }
+    catch (InterruptedException ie) {
+      // expected
+    }
+    assertTrue("nothing written", written.isEmpty());
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for BootstrapSnapshot, written to and mapped from a
+ * temporary file.
+ */
+public class BootstrapSnapshotTest
+{
+  private File file;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    file = File.createTempFile("snapshot", ".bin");
+  }
+
+  @After
+  public void tearDown ()
+  {
+    file.delete();
+  }
+
+  @Test
+  public void testRoundTrip () throws IOException
+  {
+    BootstrapSnapshot.Writer writer = new BootstrapSnapshot.Writer();
+    writer.putString("model.name", "Villages")
+          .putInts("model.counts", new int[] {3, 1, 4})
+          .putDoubles("model.usage", new double[] {-1.5, 2.25, 0.0})
+          .putLongs("model.ids", new long[] {Long.MAX_VALUE, -7l});
+    assertEquals("four sections", 4, writer.getSectionCount());
+    writer.write(file);
+
+    BootstrapSnapshot snapshot = BootstrapSnapshot.open(file);
+    Iterator<String> names = snapshot.getSectionNames().iterator();
+    assertEquals("first", "model.name", names.next());
+    assertEquals("second", "model.counts", names.next());
+    assertEquals("string", "Villages", snapshot.getString("model.name"));
+
+    IntBuffer counts = snapshot.getInts("model.counts");
+    assertEquals("three ints", 3, counts.remaining());
+    assertEquals("int 2", 4, counts.get(2));
+
+    DoubleBuffer usage = snapshot.getDoubles("model.usage");
+    assertEquals("three doubles", 3, usage.remaining());
+    assertEquals("double 0", -1.5, usage.get(0), 0.0);
+    assertEquals("double 1", 2.25, usage.get(1), 0.0);
+    assertTrue("read-only", usage.isReadOnly());
+
+    LongBuffer ids = snapshot.getLongs("model.ids");
+    assertEquals("long 0", Long.MAX_VALUE, ids.get(0));
+    assertEquals("long 1", -7l, ids.get(1));
+  }
+
+  // changes made to an array after it is put must not reach the file
+  @Test
+  public void testPutCopies () throws IOException
+  {
+    double[] usage = {1.0, 2.0};
+    int[] counts = {3, 4};
+    BootstrapSnapshot.Writer writer = new BootstrapSnapshot.Writer()
+        .putDoubles("usage", usage)
+        .putInts("counts", counts);
+    usage[0] = -1.0;
+    counts[1] = -4;
+    writer.write(file);
+
+    BootstrapSnapshot snapshot = BootstrapSnapshot.open(file);
+    assertEquals("double as put", 1.0,
+                 snapshot.getDoubles("usage").get(0), 0.0);
+    assertEquals("int as put", 4, snapshot.getInts("counts").get(1));
+  }
+
+  @Test
+  public void testMissingSection () throws IOException
+  {
+    new BootstrapSnapshot.Writer()
+        .putInts("counts", new int[] {1}).write(file);
+    BootstrapSnapshot snapshot = BootstrapSnapshot.open(file);
+    assertTrue("present", snapshot.hasSection("counts"));
+    assertFalse("absent", snapshot.hasSection("usage"));
+    assertNull("missing", snapshot.getDoubles("usage"));
+    assertNull("wrong type", snapshot.getDoubles("counts"));
+  }
+
+  @Test
+  public void testReplace () throws IOException
+  {
+    new BootstrapSnapshot.Writer()
+        .putDoubles("usage", new double[] {1.0, 2.0})
+        .putDoubles("usage", new double[] {3.0})
+        .write(file);
+    DoubleBuffer usage = BootstrapSnapshot.open(file).getDoubles("usage");
+    assertEquals("one value", 1, usage.remaining());
+    assertEquals("later value", 3.0, usage.get(0), 0.0);
+  }
+
+  @Test
+  public void testEmptySections () throws IOException
+  {
+    new BootstrapSnapshot.Writer()
+        .putString("empty", "")
+        .putDoubles("none", new double[0])
+        .write(file);
+    BootstrapSnapshot snapshot = BootstrapSnapshot.open(file);
+    assertEquals("empty string", "", snapshot.getString("empty"));
+    assertEquals("no doubles", 0, snapshot.getDoubles("none").remaining());
+  }
+
+  @Test
+  public void testLarge () throws IOException
+  {
+    double[] values = new double[1000000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = i * 0.5;
+    new BootstrapSnapshot.Writer()
+        .putString("odd", "x")
+        .putDoubles("values", values).write(file);
+    DoubleBuffer mapped = BootstrapSnapshot.open(file).getDoubles("values");
+    assertEquals("all values", values.length, mapped.remaining());
+    for (int i = 0; i < values.length; i += 9973)
+      assertEquals("value " + i, values[i], mapped.get(i), 0.0);
+  }
+
+  @Test(expected = IOException.class)
+  public void testNotSnapshot () throws IOException
+  {
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("<xml/>".getBytes("UTF-8"));
+    out.close();
+    BootstrapSnapshot.open(file);
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for ImbalanceLedger.
+ */
+public class ImbalanceLedgerTest
+{
+  private Broker b1;
+  private Broker b2;
+  private ImbalanceLedger uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    b1 = new Broker("Sally");
+    b2 = new Broker("Jenny");
+    uut = new ImbalanceLedger();
+  }
+
+  @Test
+  public void testNetLoad ()
+  {
+    uut.addTariffTransaction(b1, TariffTransaction.Type.CONSUME, -300.0);
+    uut.addTariffTransaction(b1, TariffTransaction.Type.PRODUCE, 100.0);
+    uut.addTariffTransaction(b1, TariffTransaction.Type.PERIODIC, 50.0);
+    uut.addTariffTransaction(b1, TariffTransaction.Type.SIGNUP, 0.0);
+    assertEquals("b1 net load", -200.0, uut.getNetLoad(b1), 1e-6);
+    assertEquals("b2 net load", 0.0, uut.getNetLoad(b2), 1e-6);
+  }
+
+  @Test
+  public void testMarketPosition ()
+  {
+    uut.addMarketTransaction(b1, 10, 0.5);
+    uut.addMarketTransaction(b1, 10, -0.2);
+    uut.addMarketTransaction(b1, 11, 1.0);
+    assertEquals("ts 10", 0.3, uut.getMarketPosition(b1, 10), 1e-6);
+    assertEquals("ts 11", 1.0, uut.getMarketPosition(b1, 11), 1e-6);
+    assertEquals("ts 12", 0.0, uut.getMarketPosition(b1, 12), 1e-6);
+    assertEquals("b2", 0.0, uut.getMarketPosition(b2, 10), 1e-6);
+  }
+
+  @Test
+  public void testImbalance ()
+  {
+    uut.addMarketTransaction(b1, 10, 0.5);
+    uut.addTariffTransaction(b1, TariffTransaction.Type.CONSUME, -600.0);
+    uut.addTariffTransaction(b2, TariffTransaction.Type.PRODUCE, 200.0);
+    assertEquals("b1 short", -100.0, uut.getImbalance(b1, 10), 1e-6);
+    double[] result = uut.getImbalances(Arrays.asList(b1, b2), 10, null);
+    assertEquals("two brokers", 2, result.length);
+    assertEquals("b1", -100.0, result[0], 1e-6);
+    assertEquals("b2 long", 200.0, result[1], 1e-6);
+    double[] buffer = new double[4];
+    assertSame("reuses buffer", buffer,
+               uut.getImbalances(Arrays.asList(b1, b2), 10, buffer));
+  }
+
+  @Test
+  public void testRollTimeslot ()
+  {
+    uut.addMarketTransaction(b1, 10, 0.5);
+    uut.addMarketTransaction(b1, 11, 0.7);
+    uut.addTariffTransaction(b1, TariffTransaction.Type.CONSUME, -600.0);
+    uut.rollTimeslot(11);
+    assertEquals("net load cleared", 0.0, uut.getNetLoad(b1), 1e-6);
+    assertEquals("old position gone", 0.0,
+                 uut.getMarketPosition(b1, 10), 1e-6);
+    assertEquals("current position kept", 0.7,
+                 uut.getMarketPosition(b1, 11), 1e-6);
+    assertEquals("imbalance", 700.0, uut.getImbalance(b1, 11), 1e-6);
+  }
+}
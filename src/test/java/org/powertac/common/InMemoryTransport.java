@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local stand-in for the broker message transport, used to test the
+ * outbound message stage without JMS. Messages are encoded as their
+ * toString() values, and decoded envelopes are kept per broker.
+ */
+public class InMemoryTransport
+  implements OutboundMessageBatcher.Transport, OutboundMessageBatcher.Encoder
+{
+  private static Charset utf8 = Charset.forName("UTF-8");
+
+  private int encodeCount = 0;
+  private List<Broker> recipients = new ArrayList<Broker>();
+  private Map<Broker, List<List<String>>> envelopes =
+          new HashMap<Broker, List<List<String>>>();
+
+  @Override
+  public void encode (Object message, OutputStream out) throws IOException
+  {
+    encodeCount += 1;
+    out.write(message.toString().getBytes(utf8));
+  }
+
+  @Override
+  public void send (Broker broker, List<ByteBuffer> envelope)
+  {
+    recipients.add(broker);
+    List<String> messages = new ArrayList<String>();
+    for (ByteBuffer payload : envelope) {
+      byte[] bytes = new byte[payload.remaining()];
+      payload.get(bytes);
+      messages.add(new String(bytes, utf8));
+    }
+    List<List<String>> received = envelopes.get(broker);
+    if (null == received) {
+      received = new ArrayList<List<String>>();
+      envelopes.put(broker, received);
+    }
+    received.add(messages);
+  }
+
+  /**
+   * Number of messages encoded so far
+   */
+  public int getEncodeCount ()
+  {
+    return encodeCount;
+  }
+
+  /**
+   * Recipients of all envelopes, in order of arrival
+   */
+  public List<Broker> getRecipients ()
+  {
+    return recipients;
+  }
+
+  /**
+   * Envelopes received by a broker, in order, as lists of decoded messages
+   */
+  public List<List<String>> getEnvelopes (Broker broker)
+  {
+    List<List<String>> result = envelopes.get(broker);
+    if (null == result)
+      return new ArrayList<List<String>>();
+    return result;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for InboundMessageQueue, using simulated brokers that
+ * submit messages in a fixed sequence.
+ */
+public class InboundMessageQueueTest
+{
+  private Broker flooder;
+  private Broker b1;
+  private Broker b2;
+
+  private Recorder recorder;
+  private MessageDispatchTable dispatcher;
+  private InboundMessageQueue uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    flooder = new Broker("Flood");
+    b1 = new Broker("Sally");
+    b2 = new Broker("Jenny");
+    recorder = new Recorder();
+    dispatcher = new MessageDispatchTable();
+    dispatcher.register(recorder, Msg.class);
+    uut = new InboundMessageQueue(10);
+  }
+
+  // submits count messages from a simulated broker
+  private int submit (Broker broker, int count)
+  {
+    int accepted = 0;
+    for (int i = 0; i < count; i++) {
+      if (uut.offer(broker, new Msg(broker, i)))
+        accepted += 1;
+    }
+    return accepted;
+  }
+
+  @Test
+  public void testCapacity ()
+  {
+    assertEquals("capacity", 10, uut.getCapacity());
+    assertEquals("bounded", 10, submit(flooder, 25));
+    assertEquals("queued", 10, uut.size(flooder));
+    assertEquals("others unaffected", 3, submit(b1, 3));
+    InboundMessageQueue.Counts counts = uut.getCounts(flooder);
+    assertEquals("accepted", 10, counts.getAccepted());
+    assertEquals("rejected", 15, counts.getRejected());
+    assertEquals("none rejected", 0, uut.getCounts(b1).getRejected());
+
+    uut.setCapacity(0);
+    assertEquals("bad capacity ignored", 10, uut.getCapacity());
+  }
+
+  @Test
+  public void testRoundRobin ()
+  {
+    submit(flooder, 100);
+    submit(b1, 2);
+    submit(b2, 3);
+    assertEquals("drained", 8, uut.drain(dispatcher, 8));
+    assertEquals("interleaved",
+                 Arrays.asList("Flood-0", "Sally-0", "Jenny-0",
+                               "Flood-1", "Sally-1", "Jenny-1",
+                               "Flood-2", "Jenny-2"),
+                 recorder.received);
+    recorder.received.clear();
+    assertEquals("rest", 7, uut.drain(dispatcher, 100));
+    assertEquals("flooder last", "Flood-9", recorder.received.get(6));
+    assertNull("empty", uut.poll());
+  }
+
+  @Test
+  public void testRejoin ()
+  {
+    submit(b1, 1);
+    submit(b2, 1);
+    uut.drain(dispatcher, 1);
+    submit(b1, 1);
+    uut.drain(dispatcher, 10);
+    assertEquals("rejoins at the end",
+                 Arrays.asList("Sally-0", "Jenny-0", "Sally-0"),
+                 recorder.received);
+  }
+
+  @Test
+  public void testDiscardPending ()
+  {
+    submit(flooder, 15);
+    submit(b1, 4);
+    uut.drain(dispatcher, 6);
+    uut.discardPending();
+    assertEquals("nothing queued", 0, uut.size(flooder));
+    assertNull("empty", uut.poll());
+    assertEquals("flooder dropped", 7, uut.getCounts(flooder).getDropped());
+    assertEquals("b1 dropped", 1, uut.getCounts(b1).getDropped());
+    uut.resetCounts();
+    assertEquals("cleared", 0, uut.getCounts(flooder).getRejected());
+  }
+
+  // within a deadline of a fixed number of messages, every
+  // well-behaved broker gets all its messages processed
+  @Test
+  public void testFairness ()
+  {
+    List<Broker> brokers = new ArrayList<Broker>();
+    for (int i = 0; i < 5; i++) {
+      brokers.add(new Broker("b" + i));
+    }
+    for (int round = 0; round < 3; round++) {
+      submit(flooder, 1000);
+      for (Broker broker : brokers) {
+        submit(broker, 2);
+      }
+    }
+    uut.drain(dispatcher, 40);
+    for (Broker broker : brokers) {
+      int count = 0;
+      for (String id : recorder.received) {
+        if (id.startsWith(broker.getUsername() + "-"))
+          count += 1;
+      }
+      assertEquals(broker.getUsername() + " processed", 6, count);
+    }
+    assertEquals("flooder rejected", 2990,
+                 uut.getCounts(flooder).getRejected());
+  }
+
+  public static class Msg
+  {
+    String id;
+
+    Msg (Broker broker, int index)
+    {
+      id = broker.getUsername() + "-" + index;
+    }
+  }
+
+  public static class Recorder
+  {
+    List<String> received = new ArrayList<String>();
+
+    public void handleMessage (Msg msg)
+    {
+      received.add(msg.id);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powertac.common.interfaces.Accounting;
+import org.powertac.common.interfaces.AccountingConformanceTest;
+import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.repo.TimeslotRepo;
+
+/**
+ * Runs the Accounting conformance tests against LedgerAccounting, plus
+ * tests of its cash handling. Transactions come from a mocked
+ * TransactionFactory.
+ */
+public class LedgerAccountingTest extends AccountingConformanceTest
+{
+  private TransactionFactory txFactory;
+  private BrokerProxy brokerProxy;
+  private TimeslotRepo timeslotRepo;
+  private int currentSerial = 10;
+  private Map<Integer, Timeslot> timeslots = new HashMap<Integer, Timeslot>();
+
+  @Override
+  protected Accounting createAccounting ()
+  {
+    txFactory = mock(TransactionFactory.class);
+    when(txFactory.makeTariffTransaction(any(Broker.class),
+                                         any(TariffTransaction.Type.class),
+                                         any(TariffSpecification.class),
+                                         any(CustomerInfo.class),
+                                         anyInt(), anyDouble(), anyDouble()))
+        .thenAnswer(new Answer<TariffTransaction>() {
+          @Override
+          public TariffTransaction answer (InvocationOnMock invocation)
+          {
+            return mock(TariffTransaction.class);
+          }
+        });
+    brokerProxy = mock(BrokerProxy.class);
+    timeslotRepo = mock(TimeslotRepo.class);
+    when(timeslotRepo.currentSerialNumber()).thenAnswer(new Answer<Integer>() {
+      @Override
+      public Integer answer (InvocationOnMock invocation)
+      {
+        return currentSerial;
+      }
+    });
+    return new LedgerAccounting(txFactory, brokerProxy, timeslotRepo);
+  }
+
+  @Override
+  protected Timeslot getTimeslot (int offset)
+  {
+    int serial = currentSerial + offset;
+    Timeslot result = timeslots.get(serial);
+    if (null == result) {
+      result = mock(Timeslot.class);
+      when(result.getSerialNumber()).thenReturn(serial);
+      timeslots.put(serial, result);
+    }
+    return result;
+  }
+
+  @Override
+  protected void endTimeslot ()
+  {
+    accounting.activate(new Instant(0l), 0);
+    currentSerial += 1;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testActivate ()
+  {
+    LedgerAccounting uut = (LedgerAccounting)accounting;
+    uut.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                             t1, customer, 10, -200.0, 20.0);
+    uut.addMarketTransaction(b1, getTimeslot(1), 0.5, -30.0);
+    uut.addDistributionTransaction(b1, 200.0, -4.0);
+    uut.addBalancingTransaction(b1, -10.0, -1.5);
+    uut.addMarketTransaction(b2, getTimeslot(1), -0.5, 30.0);
+    endTimeslot();
+
+    assertEquals("b1 cash", 20.0 - 15.0 - 4.0 - 1.5,
+                 uut.getCashBalance(b1), 1e-6);
+    assertEquals("b2 cash", 15.0, uut.getCashBalance(b2), 1e-6);
+    verify(txFactory).makeCashPosition(b1, -0.5);
+    verify(txFactory).makeCashPosition(b2, 15.0);
+    ArgumentCaptor<List> messages = ArgumentCaptor.forClass(List.class);
+    verify(brokerProxy).sendMessages(eq(b1), messages.capture());
+    assertEquals("four transactions and cash position", 5,
+                 messages.getValue().size());
+
+    // balances carry over, activity does not
+    reset(brokerProxy);
+    uut.addBalancingTransaction(b2, 10.0, 1.0);
+    endTimeslot();
+    assertEquals("b2 cash", 16.0, uut.getCashBalance(b2), 1e-6);
+    verify(brokerProxy, never()).sendMessages(eq(b1), anyList());
+  }
+
+  // the pending list handed out must not change under the caller
+  @Test
+  public void testPendingSnapshot ()
+  {
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t1, customer, 10, -200.0, 20.0);
+    List<TariffTransaction> pending =
+        accounting.getPendingTariffTransactions();
+    assertEquals("one pending", 1, pending.size());
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t2, customer, 5, -70.0, 7.0);
+    assertEquals("later add not seen", 1, pending.size());
+    endTimeslot();
+    assertEquals("activate does not clear it", 1, pending.size());
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for MessageDispatchTable.
+ */
+public class MessageDispatchTableTest
+{
+  private MessageDispatchTable uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    uut = new MessageDispatchTable();
+  }
+
+  @Test
+  public void testDispatch ()
+  {
+    OrderListener orders = new OrderListener();
+    assertTrue("registered", uut.register(orders, OrderMsg.class));
+    assertTrue("delivered", uut.dispatch(new OrderMsg()));
+    assertEquals("one order", 1, orders.orders.size());
+    assertFalse("no listener", uut.dispatch(new SpecMsg()));
+    assertFalse("no listener", uut.dispatch("hello"));
+  }
+
+  @Test
+  public void testSubclass ()
+  {
+    assertEquals("none yet", 0, uut.getListenerCount(LimitOrderMsg.class));
+    OrderListener orders = new OrderListener();
+    uut.register(orders, OrderMsg.class);
+    assertEquals("registration clears cache", 1,
+                 uut.getListenerCount(LimitOrderMsg.class));
+    uut.dispatch(new OrderMsg());
+    assertEquals("general handler", 1, orders.orders.size());
+    uut.dispatch(new LimitOrderMsg());
+    assertEquals("subclass to its own handler", 1, orders.limitCount);
+    assertEquals("not general handler", 1, orders.orders.size());
+  }
+
+  // a subclass without its own overload falls back to the general handler
+  @Test
+  public void testSubclassFallback ()
+  {
+    OrderListener orders = new OrderListener();
+    uut.register(orders, OrderMsg.class);
+    uut.dispatch(new MarketOrderMsg());
+    assertEquals("general handler", 1, orders.orders.size());
+    assertEquals("not limit handler", 0, orders.limitCount);
+  }
+
+  @Test
+  public void testMostSpecific ()
+  {
+    OrderListener orders = new OrderListener();
+    uut.register(orders, LimitOrderMsg.class);
+    uut.dispatch(new LimitOrderMsg());
+    assertEquals("specific handler", 1, orders.limitCount);
+    assertEquals("not general handler", 0, orders.orders.size());
+  }
+
+  @Test
+  public void testMultipleListeners ()
+  {
+    OrderListener first = new OrderListener();
+    OrderListener second = new OrderListener();
+    uut.register(first, OrderMsg.class);
+    uut.register(second, OrderMsg.class);
+    OrderMsg msg = new OrderMsg();
+    uut.dispatch(msg);
+    assertSame("first", msg, first.orders.get(0));
+    assertSame("second", msg, second.orders.get(0));
+  }
+
+  @Test
+  public void testNoHandler ()
+  {
+    assertFalse("no handler", uut.register(new SpecListener(),
+                                           OrderMsg.class));
+    assertEquals("not registered", 0, uut.getListenerCount(OrderMsg.class));
+  }
+
+  @Test
+  public void testHandlerException ()
+  {
+    uut.register(new SpecListener(), SpecMsg.class);
+    OrderListener orders = new OrderListener();
+    uut.register(orders, OrderMsg.class);
+    SpecMsg bad = new SpecMsg();
+    bad.bad = true;
+    assertTrue("delivered", uut.dispatch(bad));
+    uut.dispatch(new OrderMsg());
+    assertEquals("still running", 1, orders.orders.size());
+  }
+
+  // Message mix resembling a busy timeslot: mostly orders, some tariff
+  // traffic, a few unhandled types
+  @Test
+  public void testMessageMix ()
+  {
+    OrderListener orders = new OrderListener();
+    SpecListener specs = new SpecListener();
+    uut.register(orders, OrderMsg.class);
+    uut.register(specs, SpecMsg.class);
+    int unhandled = 0;
+    for (int i = 0; i < 10000; i++) {
+      Object msg;
+      if (i % 10 < 6)
+        msg = new OrderMsg();
+      else if (i % 10 < 8)
+        msg = new LimitOrderMsg();
+      else if (i % 10 < 9)
+        msg = new SpecMsg();
+      else
+        msg = Integer.valueOf(i);
+      if (!uut.dispatch(msg))
+        unhandled += 1;
+    }
+    assertEquals("orders", 6000, orders.orders.size());
+    assertEquals("limit orders", 2000, orders.limitCount);
+    assertEquals("specs", 1000, specs.count);
+    assertEquals("unhandled", 1000, unhandled);
+  }
+
+  public static class OrderMsg
+  {
+  }
+
+  public static class LimitOrderMsg extends OrderMsg
+  {
+  }
+
+  public static class MarketOrderMsg extends OrderMsg
+  {
+  }
+
+  public static class SpecMsg
+  {
+    boolean bad = false;
+  }
+
+  public static class OrderListener
+  {
+    List<OrderMsg> orders = new ArrayList<OrderMsg>();
+    int limitCount = 0;
+
+    public void handleMessage (OrderMsg msg)
+    {
+      orders.add(msg);
+    }
+
+    public void handleMessage (LimitOrderMsg msg)
+    {
+      limitCount += 1;
+    }
+  }
+
+  public static class SpecListener
+  {
+    int count = 0;
+
+    public void handleMessage (SpecMsg msg)
+    {
+      if (msg.bad)
+        throw new IllegalArgumentException("bad spec");
+      count += 1;
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for OutboundMessageBatcher.
+ */
+public class OutboundMessageBatcherTest
+{
+  private Broker b1;
+  private Broker b2;
+  private List<Broker> brokers;
+
+  private InMemoryTransport transport;
+  private OutboundMessageBatcher uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    b1 = new Broker("Sally");
+    b2 = new Broker("Jenny");
+    brokers = Arrays.asList(b1, b2);
+    transport = new InMemoryTransport();
+    uut = new OutboundMessageBatcher(transport, transport);
+  }
+
+  @Test
+  public void testImmediate ()
+  {
+    uut.send(b1, "one");
+    uut.send(b2, Arrays.asList("two", "three"));
+    assertEquals("two envelopes", 2, transport.getRecipients().size());
+    assertEquals("first to b1", b1, transport.getRecipients().get(0));
+    assertEquals("one message", Arrays.asList("one"),
+                 transport.getEnvelopes(b1).get(0));
+    assertEquals("second to b2", b2, transport.getRecipients().get(1));
+    assertEquals("two messages", Arrays.asList("two", "three"),
+                 transport.getEnvelopes(b2).get(0));
+  }
+
+  @Test
+  public void testBroadcastEncodedOnce ()
+  {
+    uut.broadcast(brokers, "hello");
+    assertEquals("encoded once", 1, transport.getEncodeCount());
+    assertEquals("two envelopes", 2, transport.getRecipients().size());
+    assertEquals("b1 got it", Arrays.asList("hello"),
+                 transport.getEnvelopes(b1).get(0));
+    assertEquals("b2 got it", Arrays.asList("hello"),
+                 transport.getEnvelopes(b2).get(0));
+
+    uut.broadcast(brokers, Arrays.asList("a", "bb", "ccc"));
+    assertEquals("each message encoded once", 4, transport.getEncodeCount());
+    assertEquals("four envelopes", 4, transport.getRecipients().size());
+    assertEquals("b1 got list", Arrays.asList("a", "bb", "ccc"),
+                 transport.getEnvelopes(b1).get(1));
+    assertEquals("b2 got list", Arrays.asList("a", "bb", "ccc"),
+                 transport.getEnvelopes(b2).get(1));
+  }
+
+  // encoding work must not grow with the number of brokers
+  @Test
+  public void testBroadcastScaling ()
+  {
+    List<String> messages = new ArrayList<String>();
+    for (int i = 0; i < 20; i++) {
+      messages.add("spec-" + i);
+    }
+    int encoded = 0;
+    for (int brokerCount : new int[] {1, 10, 30}) {
+      List<Broker> recipients = new ArrayList<Broker>();
+      for (int i = 0; i < brokerCount; i++) {
+        recipients.add(new Broker("b" + i));
+      }
+      uut.broadcast(recipients, messages);
+      encoded += messages.size();
+      assertEquals("encoded once for " + brokerCount + " brokers",
+                   encoded, transport.getEncodeCount());
+      for (Broker broker : recipients) {
+        assertEquals("complete list", messages,
+                     transport.getEnvelopes(broker).get(0));
+        assertEquals("counted", 20,
+                     uut.getTraffic(broker).getMessageCount());
+      }
+    }
+  }
+
+  @Test
+  public void testDeferred ()
+  {
+    uut.setDeferred(true);
+    uut.send(b1, "one");
+    uut.broadcast(brokers, "all");
+    uut.send(b2, Arrays.asList("two", "three"));
+    uut.send(b1, "four");
+    assertEquals("nothing sent", 0, transport.getRecipients().size());
+    assertEquals("encoded once each", 5, transport.getEncodeCount());
+
+    uut.flush();
+    assertFalse("no longer deferred", uut.isDeferred());
+    assertEquals("one envelope per broker", 2,
+                 transport.getRecipients().size());
+    assertEquals("b1 first", b1, transport.getRecipients().get(0));
+    assertEquals("b1 in order", Arrays.asList("one", "all", "four"),
+                 transport.getEnvelopes(b1).get(0));
+    assertEquals("b2 in order", Arrays.asList("all", "two", "three"),
+                 transport.getEnvelopes(b2).get(0));
+
+    uut.flush();
+    assertEquals("nothing more", 2, transport.getRecipients().size());
+  }
+
+  @Test
+  public void testTraffic ()
+  {
+    uut.setDeferred(true);
+    uut.broadcast(brokers, "hello");
+    uut.send(b1, "abc");
+    uut.flush();
+    uut.send(b1, "xy");
+
+    OutboundMessageBatcher.Traffic t1 = uut.getTraffic(b1);
+    assertEquals("b1 envelopes", 2, t1.getEnvelopeCount());
+    assertEquals("b1 messages", 3, t1.getMessageCount());
+    assertEquals("b1 bytes", 10l, t1.getByteCount());
+    OutboundMessageBatcher.Traffic t2 = uut.getTraffic(b2);
+    assertEquals("b2 envelopes", 1, t2.getEnvelopeCount());
+    assertEquals("b2 messages", 1, t2.getMessageCount());
+    assertEquals("b2 bytes", 5l, t2.getByteCount());
+
+    uut.resetTraffic();
+    assertEquals("cleared", 0, uut.getTraffic(b1).getMessageCount());
+    assertEquals("cleared", 0l, uut.getTraffic(b2).getByteCount());
+  }
+
+  // a message the encoder chokes on must not stop the rest of the list
+  @Test
+  public void testEncoderFailure ()
+  {
+    InMemoryTransport choosy = new InMemoryTransport() {
+      @Override
+      public void encode (Object message, OutputStream out) throws IOException
+      {
+        if ("bad".equals(message))
+          throw new IllegalArgumentException("cannot encode");
+        super.encode(message, out);
+      }
+    };
+    uut = new OutboundMessageBatcher(choosy, choosy);
+    uut.broadcast(brokers, Arrays.asList("a", "bad", "c"));
+    assertEquals("b1 got the rest", Arrays.asList("a", "c"),
+                 choosy.getEnvelopes(b1).get(0));
+    assertEquals("b2 got the rest", Arrays.asList("a", "c"),
+                 choosy.getEnvelopes(b2).get(0));
+    uut.send(b1, "bad");
+    uut.send(b1, "d");
+    assertEquals("bad message dropped", Arrays.asList("d"),
+                 choosy.getEnvelopes(b1).get(1));
+  }
+
+  // a broker that is slow to accept an envelope must not hold up
+  // other callers, and must still get its envelopes in order
+  @Test(timeout = 10000)
+  public void testSlowBroker () throws Exception
+  {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    InMemoryTransport slow = new InMemoryTransport() {
+      @Override
+      public void send (Broker broker, List<ByteBuffer> envelope)
+      {
+        if (broker == b1 && entered.getCount() > 0) {
+          entered.countDown();
+          try {
+            release.await();
+          }
+          catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        super.send(broker, envelope);
+      }
+    };
+    uut = new OutboundMessageBatcher(slow, slow);
+    Thread sender = new Thread() {
+      @Override
+      public void run ()
+      {
+        uut.send(b1, "first");
+      }
+    };
+    sender.start();
+    entered.await();
+
+    // neither of these may wait for the blocked send
+    uut.send(b2, "other");
+    uut.send(b1, "second");
+    assertEquals("b2 served", Arrays.asList("other"),
+                 slow.getEnvelopes(b2).get(0));
+    assertEquals("b1 still waiting", 0, slow.getEnvelopes(b1).size());
+
+    release.countDown();
+    sender.join();
+    assertEquals("b1 got both", 2, slow.getEnvelopes(b1).size());
+    assertEquals("first in order", Arrays.asList("first"),
+                 slow.getEnvelopes(b1).get(0));
+    assertEquals("second in order", Arrays.asList("second"),
+                 slow.getEnvelopes(b1).get(1));
+  }
+}
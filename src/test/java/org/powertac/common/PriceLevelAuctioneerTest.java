@@ -0,0 +1,454 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powertac.common.interfaces.Accounting;
+import org.powertac.common.interfaces.BrokerProxy;
+import org.powertac.common.repo.TimeslotRepo;
+
+/**
+ * Test cases for PriceLevelAuctioneer, with mocked Accounting,
+ * BrokerProxy, and TimeslotRepo.
+ */
+public class PriceLevelAuctioneerTest
+{
+  private Accounting accounting;
+  private BrokerProxy brokerProxy;
+  private TimeService timeService;
+  private TimeslotRepo timeslotRepo;
+
+  private Broker buyer;
+  private Broker seller;
+  private Timeslot ts1;
+  private Timeslot ts2;
+
+  private PriceLevelAuctioneer uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    accounting = mock(Accounting.class);
+    brokerProxy = mock(BrokerProxy.class);
+    timeService = mock(TimeService.class);
+    when(timeService.getCurrentTime()).thenReturn(new Instant(0l));
+    buyer = new Broker("Buyer");
+    seller = new Broker("Seller");
+    ts1 = mock(Timeslot.class);
+    when(ts1.getSerialNumber()).thenReturn(5);
+    ts2 = mock(Timeslot.class);
+    when(ts2.getSerialNumber()).thenReturn(6);
+    timeslotRepo = mock(TimeslotRepo.class);
+    when(timeslotRepo.isTimeslotEnabled(any(Timeslot.class)))
+        .thenReturn(true);
+    uut = new PriceLevelAuctioneer(accounting, brokerProxy, timeService,
+                                   timeslotRepo);
+  }
+
+  private Order makeOrder (Broker broker, Timeslot timeslot,
+                           double mWh, Double limitPrice)
+  {
+    Order order = PriceLevelBookTest.makeOrder(mWh, limitPrice);
+    when(order.getBroker()).thenReturn(broker);
+    when(order.getTimeslot()).thenReturn(timeslot);
+    return order;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testClearMarket ()
+  {
+    // later timeslot first, to check clearing order
+    uut.processOrder(makeOrder(buyer, ts2, 1.0, -50.0));
+    uut.processOrder(makeOrder(seller, ts2, -1.0, 30.0));
+    uut.processOrder(makeOrder(buyer, ts1, 2.0, -40.0));
+    uut.processOrder(makeOrder(seller, ts1, -3.0, 20.0));
+    uut.processOrder(makeOrder(seller, ts1, 0.0, 20.0));
+    uut.clearMarket();
+
+    verify(accounting).addMarketTransaction(buyer, ts1, 2.0, -30.0);
+    verify(accounting).addMarketTransaction(seller, ts1, -2.0, 30.0);
+    verify(accounting).addMarketTransaction(buyer, ts2, 1.0, -40.0);
+    verify(accounting).addMarketTransaction(seller, ts2, -1.0, 40.0);
+    verifyNoMoreInteractions(accounting);
+
+    ArgumentCaptor<List> messages = ArgumentCaptor.forClass(List.class);
+    verify(brokerProxy).broadcastMessages(messages.capture());
+    List<Object> sent = messages.getValue();
+    assertEquals("trade and orderbook per timeslot", 4, sent.size());
+    assertTrue("trade first", sent.get(0) instanceof ClearedTrade);
+    assertTrue("then orderbook", sent.get(1) instanceof Orderbook);
+    assertEquals("ts1 first", ts1,
+                 ((ClearedTrade)sent.get(0)).getTimeslot());
+    assertEquals("ts2 second", ts2,
+                 ((ClearedTrade)sent.get(2)).getTimeslot());
+
+    // orders expire at clearing
+    reset(brokerProxy);
+    uut.clearMarket();
+    verify(brokerProxy, never()).broadcastMessages(anyList());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testNoTrade ()
+  {
+    uut.processOrder(makeOrder(buyer, ts1, 2.0, -10.0));
+    uut.processOrder(makeOrder(seller, ts1, -3.0, 20.0));
+    uut.clearMarket();
+    verifyZeroInteractions(accounting);
+    ArgumentCaptor<List> messages = ArgumentCaptor.forClass(List.class);
+    verify(brokerProxy).broadcastMessages(messages.capture());
+    assertEquals("orderbook only", 1, messages.getValue().size());
+    assertNull("no clearing price",
+               ((Orderbook)messages.getValue().get(0)).getClearingPrice());
+  }
+
+  // invalid orders are dropped without disturbing the valid ones
+  @Test
+  public void testInvalidOrders ()
+  {
+    Timeslot closed = mock(Timeslot.class);
+    when(closed.getSerialNumber()).thenReturn(4);
+    when(timeslotRepo.isTimeslotEnabled(closed)).thenReturn(false);
+    uut.processOrder(makeOrder(null, ts1, 1.0, -50.0));
+    uut.processOrder(makeOrder(buyer, null, 1.0, -50.0));
+    uut.processOrder(makeOrder(buyer, closed, 1.0, -50.0));
+    uut.processOrder(makeOrder(seller, closed, -1.0, 30.0));
+    uut.processOrder(makeOrder(buyer, ts1, 1.0, -50.0));
+    uut.processOrder(makeOrder(seller, ts1, -1.0, 30.0));
+    uut.clearMarket();
+    verify(accounting).addMarketTransaction(buyer, ts1, 1.0, -40.0);
+    verify(accounting).addMarketTransaction(seller, ts1, -1.0, 40.0);
+    verifyNoMoreInteractions(accounting);
+  }
+
+  // parallel clearing must post the same transactions in the same order
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testParallelClearing () throws Exception
+  {
+    List<Timeslot> timeslots = new ArrayList<Timeslot>();
+    for (int i = 0; i < 24; i++) {
+      Timeslot ts = mock(Timeslot.class);
+      when(ts.getSerialNumber()).thenReturn(100 + i);
+      timeslots.add(ts);
+    }
+    List<Order> orders = new ArrayList<Order>();
+    Random random = new Random(7);
+    for (int i = 0; i < 2000; i++) {
+      Timeslot ts = timeslots.get(random.nextInt(timeslots.size()));
+      double price = 20.0 + random.nextInt(40);
+      double qty = 1.0 + random.nextInt(10);
+      if (random.nextBoolean())
+        orders.add(makeOrder(buyer, ts, qty, -price));
+      else
+        orders.add(makeOrder(seller, ts, -qty, price));
+    }
+
+    for (Order order : orders)
+      uut.processOrder(order);
+    uut.clearMarket();
+    ArgumentCaptor<Timeslot> seqSlots =
+        ArgumentCaptor.forClass(Timeslot.class);
+    ArgumentCaptor<Double> seqMWh = ArgumentCaptor.forClass(Double.class);
+    ArgumentCaptor<Double> seqPrice = ArgumentCaptor.forClass(Double.class);
+    verify(accounting, atLeastOnce())
+        .addMarketTransaction(any(Broker.class), seqSlots.capture(),
+                              seqMWh.capture(), seqPrice.capture());
+    ArgumentCaptor<List> seqMessages = ArgumentCaptor.forClass(List.class);
+    verify(brokerProxy).broadcastMessages(seqMessages.capture());
+
+    reset(accounting);
+    reset(brokerProxy);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (Order order : orders)
+        uut.processOrder(order);
+      uut.clearMarket(executor);
+    }
+    finally {
+      executor.shutdown();
+    }
+    ArgumentCaptor<Timeslot> parSlots =
+        ArgumentCaptor.forClass(Timeslot.class);
+    ArgumentCaptor<Double> parMWh = ArgumentCaptor.forClass(Double.class);
+    ArgumentCaptor<Double> parPrice = ArgumentCaptor.forClass(Double.class);
+    verify(accounting, atLeastOnce())
+        .addMarketTransaction(any(Broker.class), parSlots.capture(),
+                              parMWh.capture(), parPrice.capture());
+    ArgumentCaptor<List> parMessages = ArgumentCaptor.forClass(List.class);
+    verify(brokerProxy).broadcastMessages(parMessages.capture());
+
+    assertEquals("same timeslots", seqSlots.getAllValues(),
+                 parSlots.getAllValues());
+    assertEquals("same quantities", seqMWh.getAllValues(),
+                 parMWh.getAllValues());
+    assertEquals("same prices", seqPrice.getAllValues(),
+                 parPrice.getAllValues());
+    assertEquals("same message count", seqMessages.getValue().size(),
+                 parMessages.getValue().size());
+    int previous = 0;
+    for (Object msg : (List<Object>)parMessages.getValue()) {
+      if (msg instanceof ClearedTrade) {
+        int serial = ((ClearedTrade)msg).getTimeslot().getSerialNumber();
+        assertTrue("timeslot order", serial > previous);
+        previous = serial;
+      }
+    }
+  }
+
+  // a book whose first clearing blocks until released
+  class SlowBook extends PriceLevelBook
+  {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    volatile boolean finished = false;
+
+    SlowBook (Timeslot timeslot)
+    {
+      super(timeslot);
+    }
+
+    @Override
+    public synchronized void clear (double sellerSurplusRatio,
+                                    double defaultPrice)
+    {
+      // only the first call, on a worker, blocks
+      if (started.getCount() > 0) {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException ie) {
+          fail("worker interrupted");
+        }
+      }
+      super.clear(sellerSurplusRatio, defaultPrice);
+      finished = true;
+    }
+  }
+
+  // an interrupt must not publish while a worker is still clearing
+  @Test
+  public void testInterruptedClearing () throws Exception
+  {
+    final SlowBook slow = new SlowBook(ts1);
+    uut = new PriceLevelAuctioneer(accounting, brokerProxy, timeService,
+                                   timeslotRepo) {
+      @Override
+      PriceLevelBook createBook (Timeslot timeslot)
+      {
+        return (timeslot == ts1) ? slow : super.createBook(timeslot);
+      }
+    };
+    final AtomicBoolean early = new AtomicBoolean(false);
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer (InvocationOnMock invocation)
+      {
+        if (!slow.finished)
+          early.set(true);
+        return null;
+      }
+    }).when(accounting).addMarketTransaction(any(Broker.class),
+                                             any(Timeslot.class),
+                                             anyDouble(), anyDouble());
+    uut.processOrder(makeOrder(buyer, ts1, 2.0, -40.0));
+    uut.processOrder(makeOrder(seller, ts1, -3.0, 20.0));
+    uut.processOrder(makeOrder(buyer, ts2, 1.0, -50.0));
+    uut.processOrder(makeOrder(seller, ts2, -1.0, 30.0));
+
+    final Thread caller = Thread.currentThread();
+    Thread interrupter = new Thread() {
+      @Override
+      public void run ()
+      {
+        try {
+          slow.started.await();
+          caller.interrupt();
+          Thread.sleep(50);
+        }
+        catch (InterruptedException ie) {
+          // release anyway
+        }
+        slow.release.countDown();
+      }
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      interrupter.start();
+      uut.clearMarket(executor);
+    }
+    finally {
+      executor.shutdown();
+    }
+    assertTrue("interrupt kept", Thread.interrupted());
+    interrupter.join();
+    assertFalse("published before clearing finished", early.get());
+    verify(accounting).addMarketTransaction(buyer, ts1, 2.0, -30.0);
+    verify(accounting).addMarketTransaction(seller, ts1, -2.0, 30.0);
+    verify(accounting).addMarketTransaction(buyer, ts2, 1.0, -40.0);
+    verify(accounting).addMarketTransaction(seller, ts2, -1.0, 40.0);
+    verifyNoMoreInteractions(accounting);
+  }
+
+  // a book that fails to clear must not be published as if it had
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFailedClearing () throws Exception
+  {
+    uut = new PriceLevelAuctioneer(accounting, brokerProxy, timeService,
+                                   timeslotRepo) {
+      @Override
+      PriceLevelBook createBook (Timeslot timeslot)
+      {
+        if (timeslot != ts2)
+          return super.createBook(timeslot);
+        return new PriceLevelBook(timeslot) {
+          @Override
+          public synchronized void clear (double sellerSurplusRatio,
+                                          double defaultPrice)
+          {
+            throw new IllegalStateException("bad book");
+          }
+        };
+      }
+    };
+    uut.processOrder(makeOrder(buyer, ts1, 2.0, -40.0));
+    uut.processOrder(makeOrder(seller, ts1, -3.0, 20.0));
+    uut.processOrder(makeOrder(buyer, ts2, 1.0, -50.0));
+    uut.processOrder(makeOrder(seller, ts2, -1.0, 30.0));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      uut.clearMarket(executor);
+      fail("failure not reported");
+    }
+    catch (IllegalStateException ise) {
+      assertEquals("the book's failure", "bad book", ise.getMessage());
+    }
+    finally {
+      executor.shutdown();
+    }
+    verifyZeroInteractions(accounting);
+    verify(brokerProxy, never()).broadcastMessages(anyList());
+  }
+
+  @Test
+  public void testProcessOrders ()
+  {
+    List<Order> batch = new ArrayList<Order>();
+    batch.add(makeOrder(buyer, ts2, 1.0, -50.0));
+    batch.add(makeOrder(buyer, ts1, 2.0, -40.0));
+    batch.add(makeOrder(buyer, ts1, 0.0, -40.0));
+    batch.add(makeOrder(seller, ts1, -3.0, 20.0));
+    batch.add(makeOrder(seller, ts2, -1.0, 30.0));
+    uut.processOrders(batch);
+    uut.clearMarket();
+    verify(accounting).addMarketTransaction(buyer, ts1, 2.0, -30.0);
+    verify(accounting).addMarketTransaction(seller, ts1, -2.0, 30.0);
+    verify(accounting).addMarketTransaction(buyer, ts2, 1.0, -40.0);
+    verify(accounting).addMarketTransaction(seller, ts2, -1.0, 40.0);
+    verifyNoMoreInteractions(accounting);
+  }
+
+  // invalid orders in a batch are dropped, and the rest are booked
+  @Test
+  public void testProcessOrdersInvalid ()
+  {
+    Timeslot closed = mock(Timeslot.class);
+    when(closed.getSerialNumber()).thenReturn(4);
+    when(timeslotRepo.isTimeslotEnabled(closed)).thenReturn(false);
+    List<Order> batch = new ArrayList<Order>();
+    batch.add(makeOrder(buyer, ts1, 2.0, -40.0));
+    batch.add(makeOrder(null, ts1, 1.0, -50.0));
+    batch.add(makeOrder(buyer, null, 1.0, -50.0));
+    batch.add(makeOrder(buyer, closed, 1.0, -50.0));
+    batch.add(makeOrder(seller, closed, -1.0, 30.0));
+    batch.add(makeOrder(seller, ts1, -3.0, 20.0));
+    uut.processOrders(batch);
+    uut.clearMarket();
+    verify(accounting).addMarketTransaction(buyer, ts1, 2.0, -30.0);
+    verify(accounting).addMarketTransaction(seller, ts1, -2.0, 30.0);
+    verifyNoMoreInteractions(accounting);
+  }
+
+  // batch submission must clear exactly like per-order submission
+  @Test
+  public void testBatchMatchesSingle ()
+  {
+    List<Order> orders = new ArrayList<Order>();
+    Random random = new Random(11);
+    for (int i = 0; i < 5000; i++) {
+      Timeslot ts = random.nextBoolean() ? ts1 : ts2;
+      double price = 20.0 + random.nextInt(40);
+      double qty = random.nextInt(5);
+      if (random.nextBoolean())
+        orders.add(makeOrder(buyer, ts, qty, -price));
+      else
+        orders.add(makeOrder(seller, ts, -qty, price));
+    }
+    for (Order order : orders)
+      uut.processOrder(order);
+    uut.clearMarket();
+    ArgumentCaptor<Double> singleMWh = ArgumentCaptor.forClass(Double.class);
+    ArgumentCaptor<Double> singlePrice =
+        ArgumentCaptor.forClass(Double.class);
+    verify(accounting, atLeastOnce())
+        .addMarketTransaction(any(Broker.class), any(Timeslot.class),
+                              singleMWh.capture(), singlePrice.capture());
+
+    reset(accounting);
+    uut.processOrders(orders);
+    uut.clearMarket();
+    ArgumentCaptor<Double> batchMWh = ArgumentCaptor.forClass(Double.class);
+    ArgumentCaptor<Double> batchPrice = ArgumentCaptor.forClass(Double.class);
+    verify(accounting, atLeastOnce())
+        .addMarketTransaction(any(Broker.class), any(Timeslot.class),
+                              batchMWh.capture(), batchPrice.capture());
+    assertEquals("same quantities", singleMWh.getAllValues(),
+                 batchMWh.getAllValues());
+    assertEquals("same prices", singlePrice.getAllValues(),
+                 batchPrice.getAllValues());
+  }
+
+  @Test
+  public void testSellerSurplus ()
+  {
+    uut.withSellerSurplusRatio(1.0);
+    uut.processOrder(makeOrder(buyer, ts1, 1.0, -40.0));
+    uut.processOrder(makeOrder(seller, ts1, -1.0, 20.0));
+    uut.clearMarket();
+    verify(accounting).addMarketTransaction(buyer, ts1, 1.0, -40.0);
+    verify(accounting).addMarketTransaction(seller, ts1, -1.0, 40.0);
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for PriceLevelBook. Orders are mocked, since only their
+ * quantities and limit prices matter here.
+ */
+public class PriceLevelBookTest
+{
+  private Timeslot timeslot;
+  private PriceLevelBook uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    timeslot = mock(Timeslot.class);
+    when(timeslot.getSerialNumber()).thenReturn(24);
+    uut = new PriceLevelBook(timeslot);
+  }
+
+  static Order makeOrder (double mWh, Double limitPrice)
+  {
+    Order order = mock(Order.class);
+    when(order.getMWh()).thenReturn(mWh);
+    when(order.getLimitPrice()).thenReturn(limitPrice);
+    return order;
+  }
+
+  @Test
+  public void testLevels ()
+  {
+    uut.add(makeOrder(1.0, -30.0));
+    uut.add(makeOrder(2.0, -30.0));
+    uut.add(makeOrder(1.0, -25.0));
+    uut.add(makeOrder(-3.0, 20.0));
+    uut.add(makeOrder(0.0, 20.0));
+    assertEquals("four orders", 4, uut.getOrderCount());
+    assertEquals("two bid levels", 2, uut.getBidLevelCount());
+    assertEquals("one ask level", 1, uut.getAskLevelCount());
+    assertEquals("correct timeslot", timeslot, uut.getTimeslot());
+  }
+
+  @Test
+  public void testNoTrade ()
+  {
+    uut.add(makeOrder(1.0, -20.0));
+    uut.add(makeOrder(-1.0, 25.0));
+    uut.clear(0.5, 40.0);
+    assertNull("no price", uut.getClearingPrice());
+    assertEquals("no quantity", 0.0, uut.getClearedQuantity(), 1e-6);
+    assertEquals("bid not filled", 0.0, uut.getExecutedMWh(0), 1e-6);
+    assertEquals("ask not filled", 0.0, uut.getExecutedMWh(1), 1e-6);
+  }
+
+  @Test
+  public void testSimpleClear ()
+  {
+    uut.add(makeOrder(2.0, -30.0));  // 0
+    uut.add(makeOrder(1.0, -22.0));  // 1
+    uut.add(makeOrder(-1.0, 18.0));  // 2
+    uut.add(makeOrder(-2.0, 20.0));  // 3
+    uut.add(makeOrder(-1.0, 25.0));  // 4
+    uut.clear(0.5, 40.0);
+    // bid 30 x 2 meets ask 18 x 1 and ask 20 x 1,
+    // then bid 22 meets the rest of ask 20
+    assertEquals("quantity", 3.0, uut.getClearedQuantity(), 1e-6);
+    assertEquals("price", 21.0, uut.getClearingPrice(), 1e-6);
+    assertEquals("bid 0", 2.0, uut.getExecutedMWh(0), 1e-6);
+    assertEquals("bid 1", 1.0, uut.getExecutedMWh(1), 1e-6);
+    assertEquals("ask 2", -1.0, uut.getExecutedMWh(2), 1e-6);
+    assertEquals("ask 3", -2.0, uut.getExecutedMWh(3), 1e-6);
+    assertEquals("ask 4", 0.0, uut.getExecutedMWh(4), 1e-6);
+  }
+
+  @Test
+  public void testProRata ()
+  {
+    uut.add(makeOrder(3.0, -30.0));
+    uut.add(makeOrder(1.0, -30.0));
+    uut.add(makeOrder(-2.0, 20.0));
+    uut.clear(0.0, 40.0);
+    assertEquals("quantity", 2.0, uut.getClearedQuantity(), 1e-6);
+    assertEquals("seller gets nothing extra", 20.0,
+                 uut.getClearingPrice(), 1e-6);
+    assertEquals("bid 0 share", 1.5, uut.getExecutedMWh(0), 1e-6);
+    assertEquals("bid 1 share", 0.5, uut.getExecutedMWh(1), 1e-6);
+    assertEquals("ask filled", -2.0, uut.getExecutedMWh(2), 1e-6);
+  }
+
+  @Test
+  public void testMarketOrders ()
+  {
+    uut.add(makeOrder(1.0, null));
+    uut.add(makeOrder(-1.0, 20.0));
+    uut.clear(0.5, 40.0);
+    assertEquals("ask price", 20.0, uut.getClearingPrice(), 1e-6);
+
+    PriceLevelBook book = new PriceLevelBook(timeslot);
+    book.add(makeOrder(1.0, -30.0));
+    book.add(makeOrder(-1.0, null));
+    book.clear(0.5, 40.0);
+    assertEquals("bid price", 30.0, book.getClearingPrice(), 1e-6);
+
+    book = new PriceLevelBook(timeslot);
+    book.add(makeOrder(1.0, null));
+    book.add(makeOrder(-1.0, null));
+    book.clear(0.5, 40.0);
+    assertEquals("default price", 40.0, book.getClearingPrice(), 1e-6);
+  }
+
+  // Large book checked against a sort-based clearing of the same orders
+  @Test
+  public void testLargeBook ()
+  {
+    Random random = new Random(42);
+    List<Order> bids = new ArrayList<Order>();
+    List<Order> asks = new ArrayList<Order>();
+    for (int i = 0; i < 20000; i++) {
+      // prices on a 0.5 grid, so levels are shared
+      double price = 15.0 + Math.floor(random.nextDouble() * 60.0) * 0.5;
+      double qty = 0.1 + Math.floor(random.nextDouble() * 50.0) * 0.1;
+      Order order;
+      if (random.nextBoolean()) {
+        order = makeOrder(qty, -price);
+        bids.add(order);
+      }
+      else {
+        order = makeOrder(-qty, price);
+        asks.add(order);
+      }
+      uut.add(order);
+    }
+    assertTrue("levels aggregate", uut.getBidLevelCount() <= 60);
+    uut.clear(0.5, 40.0);
+
+    Collections.sort(bids, new Comparator<Order>() {
+      @Override
+      public int compare (Order o1, Order o2)
+      {
+        return Double.compare(o1.getLimitPrice(), o2.getLimitPrice());
+      }
+    });
+    Collections.sort(asks, new Comparator<Order>() {
+      @Override
+      public int compare (Order o1, Order o2)
+      {
+        return Double.compare(o1.getLimitPrice(), o2.getLimitPrice());
+      }
+    });
+    double traded = 0.0;
+    double bidPrice = 0.0;
+    double askPrice = 0.0;
+    int bi = 0;
+    int ai = 0;
+    double bidRemaining = bids.get(0).getMWh();
+    double askRemaining = -asks.get(0).getMWh();
+    while (bi < bids.size() && ai < asks.size()
+           && -bids.get(bi).getLimitPrice() >= asks.get(ai).getLimitPrice()) {
+      double qty = Math.min(bidRemaining, askRemaining);
+      traded += qty;
+      bidRemaining -= qty;
+      askRemaining -= qty;
+      bidPrice = -bids.get(bi).getLimitPrice();
+      askPrice = asks.get(ai).getLimitPrice();
+      if (bidRemaining <= 0.0 && ++bi < bids.size())
+        bidRemaining = bids.get(bi).getMWh();
+      if (askRemaining <= 0.0 && ++ai < asks.size())
+        askRemaining = -asks.get(ai).getMWh();
+    }
+    assertEquals("same quantity", traded, uut.getClearedQuantity(), 1e-6);
+    assertEquals("same price", askPrice + 0.5 * (bidPrice - askPrice),
+                 uut.getClearingPrice(), 1e-6);
+
+    double bought = 0.0;
+    double sold = 0.0;
+    for (int i = 0; i < uut.getOrderCount(); i++) {
+      double mWh = uut.getExecutedMWh(i);
+      if (mWh > 0.0)
+        bought += mWh;
+      else
+        sold -= mWh;
+    }
+    assertEquals("bids balance", traded, bought, 1e-6);
+    assertEquals("asks balance", traded, sold, 1e-6);
+  }
+}
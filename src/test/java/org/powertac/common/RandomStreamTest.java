@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test cases for RandomStream.
+ * 
+ */
+public class RandomStreamTest
+{
+  @Test
+  public void testReproducible ()
+  {
+    RandomStream s1 = new RandomStream(42l);
+    RandomStream s2 = new RandomStream(42l);
+    for (int i = 0; i < 100; i++) {
+      assertEquals("same sequence", s1.nextLong(), s2.nextLong());
+    }
+    assertFalse("different seed",
+                new RandomStream(43l).nextLong() == new RandomStream(42l).nextLong());
+  }
+
+  @Test
+  public void testJump ()
+  {
+    RandomStream s1 = new RandomStream(-7l);
+    RandomStream s2 = new RandomStream(-7l);
+    for (int i = 0; i < 1000; i++) {
+      s1.nextLong();
+    }
+    s2.jump(1000);
+    assertEquals("same position", s1.nextLong(), s2.nextLong());
+  }
+
+  @Test
+  public void testSubstream ()
+  {
+    RandomStream root = new RandomStream(17l);
+    RandomStream sub3 = root.substream(3);
+    root.nextLong();
+    root.nextDouble();
+    RandomStream again = root.substream(3);
+    for (int i = 0; i < 100; i++) {
+      assertEquals("independent of position", sub3.nextLong(), again.nextLong());
+    }
+    assertFalse("different substreams",
+                root.substream(1).nextLong() == root.substream(2).nextLong());
+  }
+
+  @Test
+  public void testSplit ()
+  {
+    RandomStream a = new RandomStream(99l);
+    RandomStream b = new RandomStream(99l);
+    RandomStream sa = a.split();
+    RandomStream sb = b.split();
+    for (int i = 0; i < 100; i++) {
+      assertEquals("split reproducible", sa.nextLong(), sb.nextLong());
+    }
+    assertEquals("parents stay in step", a.nextLong(), b.nextLong());
+  }
+
+  @Test
+  public void testRanges ()
+  {
+    RandomStream s = new RandomStream(5l);
+    for (int i = 0; i < 10000; i++) {
+      double d = s.nextDouble();
+      assertTrue("double in range", d >= 0.0 && d < 1.0);
+      int n = s.nextInt(7);
+      assertTrue("int in range", n >= 0 && n < 7);
+      int p = s.nextInt(8);
+      assertTrue("power of two in range", p >= 0 && p < 8);
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSetSeed ()
+  {
+    new RandomStream(5l).setSeed(6l);
+  }
+}
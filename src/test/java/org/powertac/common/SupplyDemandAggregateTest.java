@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test cases for SupplyDemandAggregate.
+ */
+public class SupplyDemandAggregateTest
+{
+  private Broker b1;
+  private Broker b2;
+  private SupplyDemandAggregate uut;
+
+  @Before
+  public void setUp () throws Exception
+  {
+    b1 = new Broker("Sally");
+    b2 = new Broker("Jenny");
+    uut = new SupplyDemandAggregate();
+  }
+
+  @Test
+  public void testTotals ()
+  {
+    uut.add(b1, TariffTransaction.Type.CONSUME, -100.0);
+    uut.add(b1, TariffTransaction.Type.CONSUME, -50.0);
+    uut.add(b1, TariffTransaction.Type.PRODUCE, 20.0);
+    uut.add(b2, TariffTransaction.Type.PERIODIC, 0.0);
+    assertEquals("b1 consume", -150.0,
+                 uut.get(b1, TariffTransaction.Type.CONSUME), 1e-6);
+    assertEquals("b1 produce", 20.0,
+                 uut.get(b1, TariffTransaction.Type.PRODUCE), 1e-6);
+    assertEquals("b2 consume", 0.0,
+                 uut.get(b2, TariffTransaction.Type.CONSUME), 1e-6);
+    assertEquals("unknown broker", 0.0,
+                 uut.get(new Broker("Anna"),
+                         TariffTransaction.Type.CONSUME), 1e-6);
+  }
+
+  @Test
+  public void testMap ()
+  {
+    assertTrue("empty", uut.asMap().isEmpty());
+    uut.add(b1, TariffTransaction.Type.CONSUME, -100.0);
+    uut.add(b2, TariffTransaction.Type.PRODUCE, 30.0);
+    Map<Broker, Map<TariffTransaction.Type, Double>> map = uut.asMap();
+    assertEquals("two brokers", 2, map.size());
+    Map<TariffTransaction.Type, Double> b1Map = map.get(b1);
+    assertEquals("two types", 2, b1Map.size());
+    assertEquals("b1 consume", -100.0,
+                 b1Map.get(TariffTransaction.Type.CONSUME), 1e-6);
+    assertEquals("b1 produce", 0.0,
+                 b1Map.get(TariffTransaction.Type.PRODUCE), 1e-6);
+    assertNull("not reported", b1Map.get(TariffTransaction.Type.PERIODIC));
+    assertEquals("b2 produce", 30.0,
+                 map.get(b2).get(TariffTransaction.Type.PRODUCE), 1e-6);
+    assertNull("unknown broker", map.get(new Broker("Anna")));
+
+    // the map is a snapshot
+    uut.add(b1, TariffTransaction.Type.CONSUME, -10.0);
+    assertEquals("not updated", -100.0,
+                 b1Map.get(TariffTransaction.Type.CONSUME), 1e-6);
+    assertEquals("updated in new map", -110.0,
+                 uut.asMap().get(b1).get(TariffTransaction.Type.CONSUME),
+                 1e-6);
+
+    int count = 0;
+    for (Map.Entry<Broker, Map<TariffTransaction.Type, Double>> entry
+         : map.entrySet()) {
+      assertEquals("entry", map.get(entry.getKey()), entry.getValue());
+      count += 1;
+    }
+    assertEquals("iterated", 2, count);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testReadOnly ()
+  {
+    uut.add(b1, TariffTransaction.Type.CONSUME, -100.0);
+    uut.asMap().get(b1).put(TariffTransaction.Type.CONSUME, 0.0);
+  }
+
+  @Test
+  public void testReset ()
+  {
+    for (int i = 0; i < 20; i++) {
+      uut.add(new Broker("b" + i), TariffTransaction.Type.CONSUME, -1.0);
+    }
+    uut.add(b1, TariffTransaction.Type.PRODUCE, 10.0);
+    Map<Broker, Map<TariffTransaction.Type, Double>> before = uut.asMap();
+    assertEquals("grown", 21, before.size());
+    uut.reset();
+    assertTrue("brokers cleared", uut.asMap().isEmpty());
+    assertEquals("zeroed", 0.0,
+                 uut.get(b1, TariffTransaction.Type.PRODUCE), 1e-6);
+    assertEquals("snapshot kept", 21, before.size());
+    assertEquals("snapshot value", 10.0,
+                 before.get(b1).get(TariffTransaction.Type.PRODUCE), 1e-6);
+
+    // a broker seen again starts from zero
+    uut.add(b2, TariffTransaction.Type.CONSUME, -5.0);
+    assertEquals("one broker", 1, uut.asMap().size());
+    assertEquals("fresh total", -5.0,
+                 uut.get(b2, TariffTransaction.Type.CONSUME), 1e-6);
+    assertEquals("no stale total", 0.0,
+                 uut.asMap().get(b2).get(TariffTransaction.Type.PRODUCE),
+                 1e-6);
+  }
+}
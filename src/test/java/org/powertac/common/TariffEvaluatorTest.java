@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -928,6 +929,88 @@ public class TariffEvaluatorTest
                  new Integer(5000), calls.get(bobTariff));
   }
 
+  // Draws for a seeded customer must be replayed exactly. When one
+  // generator backs both kinds of sample, bulk draws must give the same
+  // allocations as per-chunk scalar calls.
+  @Test
+  public void sharedGeneratorSamples ()
+  {
+    subscribeTo(defaultConsumption, customer.getPopulation());
+    TariffSpecification bobTS =
+            new TariffSpecification(bob,
+                                    PowerType.CONSUMPTION).
+                                    addRate(new Rate().withValue(-0.4));
+    Tariff bobTariff = new Tariff(bobTS);
+    initTariff(bobTariff);
+    TariffSpecification jimTS =
+            new TariffSpecification(jim,
+                                    PowerType.CONSUMPTION).
+                                    withMinDuration(TimeService.DAY * 5).
+                                    addRate(new Rate().withValue(-0.4));
+    Tariff jimTariff = new Tariff(jimTS);
+    initTariff(jimTariff);
+    ArrayList<Tariff> tariffs = new ArrayList<Tariff>();
+    tariffs.add(defaultConsumption);
+    tariffs.add(bobTariff);
+    tariffs.add(jimTariff);
+
+    SharedAccessor scalar = new SharedAccessor(42l);
+    HashMap<Tariff, Integer> scalarCalls =
+            allocateWithAccessor(scalar, tariffs);
+    SharedAccessor bulk = new BulkAccessor(42l);
+    HashMap<Tariff, Integer> bulkCalls = allocateWithAccessor(bulk, tariffs);
+
+    assertTrue("some chunks evaluated", scalar.choiceDraws > 0);
+    assertTrue("some chunks skipped",
+               scalar.choiceDraws < scalar.inertiaDraws);
+    assertEquals("same inertia draws",
+                 scalar.inertiaDraws, bulk.inertiaDraws);
+    assertEquals("same choice draws", scalar.choiceDraws, bulk.choiceDraws);
+    assertEquals("three tariffs", 3, scalarCalls.size());
+    assertEquals("same allocations", scalarCalls, bulkCalls);
+  }
+
+  // Runs three evaluations with a fresh evaluator, the first two against
+  // the default tariff only to build up inertia, and returns the
+  // allocations from the last one.
+  private HashMap<Tariff, Integer>
+  allocateWithAccessor (TestAccessor accessor, ArrayList<Tariff> tariffs)
+  {
+    TariffEvaluator te = new TariffEvaluator(accessor).
+            withPreferredContractDuration(4).withRationality(0.8).
+            withChunkSize(50);
+    ReflectionTestUtils.setField(te, "tariffRepo", tariffRepo);
+    ReflectionTestUtils.setField(te, "tariffMarket", tariffMarket);
+    ReflectionTestUtils.setField(te, "tariffSubscriptionRepo",
+                                 tariffSubscriptionRepo);
+    accessor.capacityProfile = new double[] {1.0, 2.0};
+
+    final HashMap<Tariff, Integer> calls = new HashMap<Tariff, Integer>();
+    doAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) {
+        Object[] args = invocation.getArguments();
+        calls.put((Tariff)args[0], (Integer)args[2]);
+        return null;
+      }
+    }).when(tariffMarket).subscribeToTariff(any(Tariff.class),
+                                            any(CustomerInfo.class),
+                                            anyInt());
+
+    ArrayList<Tariff> defaultOnly = new ArrayList<Tariff>();
+    defaultOnly.add(defaultConsumption);
+    when(tariffRepo.findRecentActiveTariffs(anyInt(), any(PowerType.class)))
+        .thenReturn(defaultOnly);
+    te.evaluateTariffs();
+    te.evaluateTariffs();
+    calls.clear();
+
+    when(tariffRepo.findRecentActiveTariffs(anyInt(), any(PowerType.class)))
+        .thenReturn(tariffs);
+    te.evaluateTariffs();
+    return calls;
+  }
+
   // Revoke to better tariff
 
   // Revoke to superseding tariff, with inertia
@@ -984,6 +1067,18 @@ public class TariffEvaluatorTest
       return inertiaSamples[inertiaPtr++];
     }
     
+    // Makes the same calls, in the same order, that the evaluator made
+    // before samples were drawn in bulk.
+    @Override
+    public void getTariffEvaluationSamples (double[] inertiaSamples,
+                                            double[] choiceSamples)
+    {
+      for (int i = 0; i < inertiaSamples.length; i++) {
+        inertiaSamples[i] = getInertiaSample();
+        choiceSamples[i] = getTariffChoiceSample();
+      }
+    }
+
     // sets the choice sequence
     void setChoiceSamples (double... samples)
     {
@@ -996,4 +1091,54 @@ public class TariffEvaluatorTest
       inertiaSamples = samples;
     }
   }
+
+  // Backs both kinds of sample with a single generator, as a customer
+  // model does, and counts the draws.
+  class SharedAccessor extends TestAccessor
+  {
+    Random generator;
+    int inertiaDraws = 0;
+    int choiceDraws = 0;
+
+    SharedAccessor (long seed)
+    {
+      super();
+      generator = new Random(seed);
+    }
+
+    @Override
+    public double getTariffChoiceSample ()
+    {
+      choiceDraws += 1;
+      return generator.nextDouble();
+    }
+
+    @Override
+    public double getInertiaSample ()
+    {
+      inertiaDraws += 1;
+      return generator.nextDouble();
+    }
+  }
+
+  // Draws straight from the generator, without the scalar methods.
+  class BulkAccessor extends SharedAccessor
+  {
+    BulkAccessor (long seed)
+    {
+      super(seed);
+    }
+
+    @Override
+    public void getTariffEvaluationSamples (double[] inertiaSamples,
+                                            double[] choiceSamples)
+    {
+      for (int i = 0; i < inertiaSamples.length; i++) {
+        inertiaDraws += 1;
+        inertiaSamples[i] = generator.nextDouble();
+        choiceDraws += 1;
+        choiceSamples[i] = generator.nextDouble();
+      }
+    }
+  }
 }
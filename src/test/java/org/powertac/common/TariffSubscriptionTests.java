@@ -20,6 +20,14 @@ import static org.mockito.Mockito.*;
 
 import org.mockito.ArgumentCaptor;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import javax.annotation.Resource;
 
 import org.joda.time.DateTime;
@@ -287,6 +295,64 @@ public class TariffSubscriptionTests
     assertEquals("correct periodic charge", 33.0 / 24.0, chargeArg.getValue(), 1e-6);
   }
 
+  @Test
+  public void testUsePowerBulk ()
+  {
+    TariffSpecification spec2 =
+        new TariffSpecification(broker, PowerType.CONSUMPTION)
+            .addRate(new Rate().withValue(-0.2));
+    Tariff tariff2 = new Tariff(spec2);
+    tariff2.init();
+    TariffSubscription sub1 = new TariffSubscription(customer, tariff);
+    sub1.subscribe(33);
+    TariffSubscription sub2 = new TariffSubscription(customer, tariff2);
+    sub2.subscribe(10);
+    List<TariffSubscription> subs = new ArrayList<TariffSubscription>();
+    subs.add(sub1);
+    subs.add(sub2);
+    TariffSubscription.usePower(subs, new double[] {330.0, 50.0});
+    ArgumentCaptor<TariffTransactionBatch> batchArg =
+        ArgumentCaptor.forClass(TariffTransactionBatch.class);
+    verify(mockAccounting).addTariffTransactions(batchArg.capture());
+    verify(mockAccounting, never())
+        .addTariffTransaction(eq(TariffTransaction.Type.CONSUME),
+                              any(Tariff.class), any(CustomerInfo.class),
+                              anyInt(), anyDouble(), anyDouble());
+    TariffTransactionBatch batch = batchArg.getValue();
+    assertEquals("one transaction per subscription", 2, batch.size());
+    assertEquals("type 1", TariffTransaction.Type.CONSUME, batch.getTxType(0));
+    assertEquals("tariff 1", tariff, batch.getTariff(0));
+    assertEquals("customer 1", customer, batch.getCustomer(0));
+    assertEquals("count 1", 33, batch.getCustomerCount(0));
+    assertEquals("kWh 1", -330.0, batch.getKWh(0), 1e-6);
+    assertEquals("correct charge 1", 330.0 * 0.11, batch.getCharge(0), 1e-6);
+    assertEquals("tariff 2", tariff2, batch.getTariff(1));
+    assertEquals("count 2", 10, batch.getCustomerCount(1));
+    assertEquals("kWh 2", -50.0, batch.getKWh(1), 1e-6);
+    assertEquals("correct charge 2", 50.0 * 0.2, batch.getCharge(1), 1e-6);
+    assertEquals("correct total 1", 10.0, sub1.getTotalUsage(), 1e-6);
+    assertEquals("correct total 2", 5.0, sub2.getTotalUsage(), 1e-6);
+  }
+
+  @Test
+  public void testUsePowerBulkMismatch ()
+  {
+    TariffSubscription sub = new TariffSubscription(customer, tariff);
+    sub.subscribe(33);
+    List<TariffSubscription> subs = new ArrayList<TariffSubscription>();
+    subs.add(sub);
+    try {
+      TariffSubscription.usePower(subs, new double[] {330.0, 50.0});
+      fail("mismatched lengths must be rejected");
+    }
+    catch (IllegalArgumentException iae) {
+      // expected
+    }
+    verify(mockAccounting, never())
+        .addTariffTransactions(any(TariffTransactionBatch.class));
+    assertEquals("no usage", 0.0, sub.getTotalUsage(), 1e-6);
+  }
+
   @Test
   public void testGetExpiredCustomerCount ()
   {
@@ -308,6 +374,26 @@ public class TariffSubscriptionTests
     assertEquals("33 expired customers", 33, sub.getExpiredCustomerCount());
   }
 
+  @Test
+  public void testExpiredCustomerCountUnsubscribe ()
+  {
+    TariffSubscription sub = new TariffSubscription(customer, tariff);
+    sub.subscribe(33);
+    Instant now = timeService.getCurrentTime();
+    timeService.setCurrentTime(now.plus(TimeService.DAY * 3));
+    sub.subscribe(22);
+    timeService.setCurrentTime(now.plus(TimeService.DAY * 6));
+    assertEquals("33 expired customers", 33, sub.getExpiredCustomerCount());
+    // first withdraw all the expired ones, and some of the others
+    sub.deferredUnsubscribe(40);
+    assertEquals("15 committed", 15, sub.getCustomersCommitted());
+    assertEquals("no expired customers", 0, sub.getExpiredCustomerCount());
+    timeService.setCurrentTime(now.plus(TimeService.DAY * 9));
+    assertEquals("15 expired customers", 15, sub.getExpiredCustomerCount());
+    sub.deferredUnsubscribe(5);
+    assertEquals("10 expired customers", 10, sub.getExpiredCustomerCount());
+  }
+
   @Test
   public void testGetExpiredCustomerCountNoMin ()
   {
@@ -341,6 +427,20 @@ public class TariffSubscriptionTests
     assertEquals("still no regulation", 0.0, sub.getRegulation(), 1e-6);
   }
 
+  @Test
+  public void regulationCapacityNull ()
+  {
+    TariffSubscription sub = new TariffSubscription(customer, tariff);
+    sub.subscribe(33);
+    sub.setRegulationCapacity(new RegulationCapacity(sub, 4.5, -3.0));
+    sub.setRegulationCapacity(null);
+    RegulationCapacity remaining = sub.getRemainingRegulationCapacity();
+    assertEquals("no up-regulation", 0.0,
+                 remaining.getUpRegulationCapacity(), 1e-6);
+    assertEquals("no down-regulation", 0.0,
+                 remaining.getDownRegulationCapacity(), 1e-6);
+  }
+
   @Test
   public void testBalancingControlUp ()
   {
@@ -577,4 +677,112 @@ public class TariffSubscriptionTests
     assertEquals("correct remaining regulation", 0.0, sub
         .getRemainingRegulationCapacity().getUpRegulationCapacity(), 1e-6);
   }
+
+  @Test
+  public void concurrentBalancingControl () throws Exception
+  {
+    spec =
+      new TariffSpecification(broker, PowerType.INTERRUPTIBLE_CONSUMPTION)
+          .withExpiration(baseTime.plus(TimeService.DAY * 10))
+          .withMinDuration(TimeService.DAY * 5)
+          .addRate(new Rate().withValue(-0.09).withMaxCurtailment(0.5))
+          .addRate(new RegulationRate().withUpRegulationPayment(0.15)
+                       .withDownRegulationPayment(-0.02));
+    tariff = new Tariff(spec);
+    tariff.init();
+    tariffRepo.addSpecification(tariff.getTariffSpec());
+    tariffRepo.addTariff(tariff);
+    final TariffSubscription sub = new TariffSubscription(customer, tariff);
+    sub.subscribe(10);
+    timeslotRepo.findOrCreateBySerialNumber(10);
+    sub.setRegulationCapacity(new RegulationCapacity(sub, 5000.0, -5000.0));
+
+    // four threads post up-regulation, four post down-regulation,
+    // while another thread keeps draining the regulation
+    final int iterations = 500;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(8);
+    ExecutorService pool = Executors.newFixedThreadPool(9);
+    for (int i = 0; i < 8; i++) {
+      final double kwh = (i % 2 == 0) ? 2.0 : -1.0;
+      pool.submit(new Callable<Object>() {
+        @Override
+        public Object call () throws Exception
+        {
+          start.await();
+          for (int n = 0; n < iterations; n++) {
+            sub.postBalancingControl(kwh);
+          }
+          done.countDown();
+          return null;
+        }
+      });
+    }
+    Future<Double> drained = pool.submit(new Callable<Double>() {
+      @Override
+      public Double call () throws Exception
+      {
+        double sum = 0.0;
+        start.await();
+        while (done.getCount() > 0) {
+          sum += sub.getRegulation();
+        }
+        return sum;
+      }
+    });
+    start.countDown();
+    double total = drained.get() + sub.getRegulation();
+    pool.shutdown();
+
+    // per-member: 2000 * 0.2 up, 2000 * 0.1 down
+    assertEquals("no regulation lost", 200.0, total, 1e-6);
+    assertEquals("correct total usage", -200.0, sub.getTotalUsage(), 1e-6);
+    RegulationCapacity cap = sub.getRemainingRegulationCapacity();
+    assertEquals("correct up-reg", 46000.0,
+                 cap.getUpRegulationCapacity(), 1e-6);
+    assertEquals("correct dn-reg", -48000.0,
+                 cap.getDownRegulationCapacity(), 1e-6);
+  }
+
+  @Test
+  public void concurrentUsePower () throws Exception
+  {
+    tariffRepo.addSpecification(tariff.getTariffSpec());
+    tariffRepo.addTariff(tariff);
+    final TariffSubscription sub = new TariffSubscription(customer, tariff);
+    sub.subscribe(33);
+    timeslotRepo.findOrCreateBySerialNumber(10);
+
+    // usage and balancing controls race on the daily usage total
+    final int iterations = 200;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    for (int i = 0; i < 8; i++) {
+      final boolean balancing = (i % 4 == 3);
+      results.add(pool.submit(new Callable<Object>() {
+        @Override
+        public Object call () throws Exception
+        {
+          start.await();
+          for (int n = 0; n < iterations; n++) {
+            if (balancing)
+              sub.postBalancingControl(33.0);
+            else
+              sub.usePower(330.0);
+          }
+          return null;
+        }
+      }));
+    }
+    start.countDown();
+    for (Future<Object> result : results) {
+      result.get();
+    }
+    pool.shutdown();
+
+    // 1200 usePower calls at 10 kWh/member, 400 controls at 1 kWh/member
+    assertEquals("correct total usage", 12000.0 - 400.0,
+                 sub.getTotalUsage(), 1e-6);
+  }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2026 by the original author
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powertac.common.interfaces;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powertac.common.Broker;
+import org.powertac.common.CustomerInfo;
+import org.powertac.common.Tariff;
+import org.powertac.common.TariffTransaction;
+import org.powertac.common.TariffTransactionBatch;
+import org.powertac.common.Timeslot;
+
+/**
+ * Conformance tests for the running totals of the Accounting contract:
+ * net load, market position, and supply/demand. An implementation runs
+ * them by extending this class.
+ */
+public abstract class AccountingConformanceTest
+{
+  protected Accounting accounting;
+  protected Broker b1;
+  protected Broker b2;
+  protected Tariff t1;
+  protected Tariff t2;
+  protected CustomerInfo customer;
+
+  /**
+   * Returns the implementation under test, with no transactions.
+   */
+  protected abstract Accounting createAccounting ();
+
+  /**
+   * Returns the timeslot that is offset timeslots after the current one.
+   */
+  protected abstract Timeslot getTimeslot (int offset);
+
+  /**
+   * Runs activation for the current timeslot, then advances the clock
+   * by one timeslot.
+   */
+  protected abstract void endTimeslot ();
+
+  @Before
+  public void setUpConformance () throws Exception
+  {
+    b1 = new Broker("Sally");
+    b2 = new Broker("Jenny");
+    t1 = mock(Tariff.class);
+    when(t1.getBroker()).thenReturn(b1);
+    t2 = mock(Tariff.class);
+    when(t2.getBroker()).thenReturn(b2);
+    customer = new CustomerInfo("Podunk", 100);
+    accounting = createAccounting();
+  }
+
+  @Test
+  public void testNetLoad ()
+  {
+    accounting.addTariffTransaction(TariffTransaction.Type.SIGNUP,
+                                    t1, customer, 10, 0.0, 2.0);
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t1, customer, 10, -200.0, 20.0);
+    accounting.addTariffTransaction(TariffTransaction.Type.PRODUCE,
+                                    t1, customer, 10, 50.0, -5.0);
+    accounting.addTariffTransaction(TariffTransaction.Type.PERIODIC,
+                                    t1, customer, 10, 0.0, 1.0);
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t2, customer, 5, -70.0, 7.0);
+    assertEquals("b1 net load", -150.0,
+                 accounting.getCurrentNetLoad(b1), 1e-6);
+    assertEquals("b2 net load", -70.0,
+                 accounting.getCurrentNetLoad(b2), 1e-6);
+    assertEquals("five pending", 5,
+                 accounting.getPendingTariffTransactions().size());
+
+    endTimeslot();
+    assertEquals("b1 cleared", 0.0, accounting.getCurrentNetLoad(b1), 1e-6);
+    assertEquals("none pending", 0,
+                 accounting.getPendingTariffTransactions().size());
+  }
+
+  @Test
+  public void testMarketPosition ()
+  {
+    accounting.addMarketTransaction(b1, getTimeslot(0), 0.5, -30.0);
+    accounting.addMarketTransaction(b1, getTimeslot(0), -0.2, 35.0);
+    accounting.addMarketTransaction(b1, getTimeslot(1), 1.5, -30.0);
+    accounting.addMarketTransaction(b2, getTimeslot(1), -1.0, 30.0);
+    assertEquals("b1 current", 0.3,
+                 accounting.getCurrentMarketPosition(b1), 1e-6);
+    assertEquals("b2 current", 0.0,
+                 accounting.getCurrentMarketPosition(b2), 1e-6);
+
+    endTimeslot();
+    assertEquals("b1 next", 1.5,
+                 accounting.getCurrentMarketPosition(b1), 1e-6);
+    assertEquals("b2 next", -1.0,
+                 accounting.getCurrentMarketPosition(b2), 1e-6);
+  }
+
+  @Test
+  public void testSupplyDemand ()
+  {
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t1, customer, 10, -200.0, 20.0);
+    accounting.addTariffTransaction(TariffTransaction.Type.PRODUCE,
+                                    t1, customer, 10, 50.0, -5.0);
+    Map<Broker, Map<TariffTransaction.Type, Double>> sd =
+        accounting.getCurrentSupplyDemandByBroker();
+    assertEquals("b1 consume", -200.0,
+                 sd.get(b1).get(TariffTransaction.Type.CONSUME), 1e-6);
+    assertEquals("b1 produce", 50.0,
+                 sd.get(b1).get(TariffTransaction.Type.PRODUCE), 1e-6);
+    assertEquals("accessor agrees", -200.0,
+                 accounting.getCurrentSupplyDemand(b1,
+                     TariffTransaction.Type.CONSUME), 1e-6);
+    assertEquals("net load agrees",
+                 accounting.getCurrentNetLoad(b1),
+                 accounting.getCurrentSupplyDemand(b1,
+                     TariffTransaction.Type.CONSUME)
+                 + accounting.getCurrentSupplyDemand(b1,
+                     TariffTransaction.Type.PRODUCE), 1e-6);
+  }
+
+  @Test
+  public void testBatch ()
+  {
+    TariffTransactionBatch batch = new TariffTransactionBatch(1);
+    batch.add(TariffTransaction.Type.CONSUME, t1, customer, 10, -200.0, 20.0)
+         .add(TariffTransaction.Type.PERIODIC, t1, customer, 10, 0.0, 1.0)
+         .add(TariffTransaction.Type.PRODUCE, t2, customer, 5, 70.0, -7.0);
+    List<TariffTransaction> added = accounting.addTariffTransactions(batch);
+    assertEquals("three added", 3, added.size());
+    assertEquals("pending in batch order", added,
+                 accounting.getPendingTariffTransactions());
+    assertEquals("b1 net load", -200.0,
+                 accounting.getCurrentNetLoad(b1), 1e-6);
+    assertEquals("b2 net load", 70.0,
+                 accounting.getCurrentNetLoad(b2), 1e-6);
+  }
+
+  @Test
+  public void testVisitPending ()
+  {
+    CustomerInfo other = new CustomerInfo("Nowhere", 50);
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t1, customer, 10, -200.0, 20.0);
+    accounting.addTariffTransaction(TariffTransaction.Type.PRODUCE,
+                                    t1, other, 10, 50.0, -5.0);
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t2, other, 5, -70.0, 7.0);
+    List<TariffTransaction> pending =
+        accounting.getPendingTariffTransactions();
+
+    final List<TariffTransaction> visited = new ArrayList<TariffTransaction>();
+    TariffTransactionVisitor collector = new TariffTransactionVisitor() {
+      @Override
+      public void visit (TariffTransaction tx)
+      {
+        visited.add(tx);
+      }
+    };
+    assertEquals("all", 3, accounting
+                 .visitPendingTariffTransactions(collector, null, null, null));
+    assertEquals("in order", pending, visited);
+
+    visited.clear();
+    assertEquals("b1", 2, accounting
+                 .visitPendingTariffTransactions(collector, b1, null, null));
+    assertEquals("b1 consume", pending.get(0), visited.get(0));
+    assertEquals("b1 produce", pending.get(1), visited.get(1));
+
+    visited.clear();
+    assertEquals("consume", 2, accounting
+                 .visitPendingTariffTransactions(collector, null,
+                     TariffTransaction.Type.CONSUME, null));
+    assertEquals("b2 consume", pending.get(2), visited.get(1));
+
+    visited.clear();
+    assertEquals("other at b2", 1, accounting
+                 .visitPendingTariffTransactions(collector, b2, null, other));
+    assertEquals("b2 other", pending.get(2), visited.get(0));
+
+    endTimeslot();
+    visited.clear();
+    assertEquals("none after activation", 0, accounting
+                 .visitPendingTariffTransactions(collector, null, null, null));
+  }
+
+  // transactions added while visiting are not visited
+  @Test
+  public void testVisitAndAdd ()
+  {
+    accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                    t1, customer, 10, -200.0, 20.0);
+    TariffTransactionVisitor adder = new TariffTransactionVisitor() {
+      @Override
+      public void visit (TariffTransaction tx)
+      {
+        accounting.addTariffTransaction(TariffTransaction.Type.PERIODIC,
+                                        t1, customer, 10, 0.0, 1.0);
+      }
+    };
+    assertEquals("one visited", 1, accounting
+                 .visitPendingTariffTransactions(adder, null, null, null));
+    assertEquals("two pending", 2,
+                 accounting.getPendingTariffTransactions().size());
+  }
+
+  // Totals stay exact under a large volume of transactions, with queries
+  // interleaved as they are during the balancing and market phases.
+  @Test
+  public void testVolume ()
+  {
+    Random random = new Random(3);
+    double load1 = 0.0;
+    double load2 = 0.0;
+    double position1 = 0.0;
+    for (int i = 0; i < 50000; i++) {
+      double kWh = Math.floor(random.nextDouble() * 100.0);
+      if (random.nextBoolean()) {
+        accounting.addTariffTransaction(TariffTransaction.Type.CONSUME,
+                                        t1, customer, 1, -kWh, kWh * 0.1);
+        load1 -= kWh;
+      }
+      else {
+        accounting.addTariffTransaction(TariffTransaction.Type.PRODUCE,
+                                        t2, customer, 1, kWh, -kWh * 0.1);
+        load2 += kWh;
+      }
+      if (i % 10 == 0) {
+        accounting.addMarketTransaction(b1, getTimeslot(0), 0.25, -30.0);
+        position1 += 0.25;
+        assertEquals("load " + i, load1,
+                     accounting.getCurrentNetLoad(b1), 1e-6);
+        assertEquals("position " + i, position1,
+                     accounting.getCurrentMarketPosition(b1), 1e-6);
+      }
+    }
+    assertEquals("b2 load", load2, accounting.getCurrentNetLoad(b2), 1e-6);
+  }
+}
@@ -13,10 +13,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.powertac.common.RandomSeed;
+import org.powertac.common.RandomStream;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(locations = {"classpath:test-config.xml"})
@@ -70,6 +72,89 @@ public class RandomSeedRepoTests
     assertEquals("still two entries", 2, randomSeedRepo.size());    
   }
   
+  @Test
+  public void testGetRandomSeedEqualKeys ()
+  {
+    RandomSeed rs1 = randomSeedRepo.getRandomSeed("Foo", 3, "test");
+    // equal but not identical strings must find the same seed
+    assertSame("same seed", rs1,
+               randomSeedRepo.getRandomSeed(new String("Foo"), 3,
+                                            new String("test")));
+    assertNotSame("different id", rs1,
+                  randomSeedRepo.getRandomSeed("Foo", 4, "test"));
+    assertEquals("two entries", 2, randomSeedRepo.size());
+  }
+
+  @Test
+  public void testConcurrentLookups () throws Exception
+  {
+    final int count = 16;
+    final RandomSeed[] seeds = new RandomSeed[count];
+    for (int i = 0; i < count; i++)
+      seeds[i] = randomSeedRepo.getRandomSeed("Foo", i, "test");
+    // each thread looks up a different seed, so a shared probe key
+    // would hand back seeds for the wrong id
+    final boolean[] ok = new boolean[count];
+    Thread[] threads = new Thread[count];
+    for (int i = 0; i < count; i++) {
+      final int id = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run ()
+        {
+          boolean good = true;
+          for (int n = 0; n < 10000; n++) {
+            if (seeds[id] != randomSeedRepo.getRandomSeed("Foo", id, "test"))
+              good = false;
+          }
+          ok[id] = good;
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    for (int i = 0; i < count; i++)
+      assertTrue("thread " + i + " found its seed", ok[i]);
+    assertEquals("no extra entries", count, randomSeedRepo.size());
+  }
+
+  // threads that create and find seeds at the same time must all end up
+  // with one seed per key
+  @Test
+  public void testConcurrentCreation () throws Exception
+  {
+    final int threadCount = 8;
+    final int keys = 2000;
+    final RandomSeed[][] found = new RandomSeed[threadCount][keys];
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run ()
+        {
+          // each thread walks the keys from a different starting point,
+          // so some lookups miss and others hit seeds just created
+          for (int n = 0; n < keys; n++) {
+            int id = (n + index * keys / threadCount) % keys;
+            found[index][id] = randomSeedRepo.getRandomSeed("Foo", id, "test");
+          }
+        }
+      };
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals("one seed per key", keys, randomSeedRepo.size());
+    for (int id = 0; id < keys; id++) {
+      RandomSeed seed = randomSeedRepo.getRandomSeed("Foo", id, "test");
+      for (int i = 0; i < threadCount; i++)
+        assertSame("thread " + i + " id " + id, seed, found[i][id]);
+    }
+  }
+
   @Test
   public void checkLogfile ()
   {
@@ -133,4 +218,94 @@ public class RandomSeedRepoTests
     assertEquals("correct seed value 2", 2904941806851623619l, rs2.getValue());
     assertEquals("still two entries", 2, randomSeedRepo.size());
   }
+
+  @Test
+  public void testLoadRepoSmallWindow ()
+  {
+    // force lines to straddle mapped windows
+    RandomSeedRepo repo = new RandomSeedRepo();
+    ReflectionTestUtils.setField(repo, "mapWindowSize", 16);
+    try {
+      repo.loadSeeds(new File("src/test/resources/randomSeedTest.state"));
+    }
+    catch (Exception fnf) {
+      fail(fnf.toString());
+    }
+    RandomSeed rs1 = repo.getRandomSeed("Foo", 3, "test");
+    assertEquals("correct seed value 1", -7938709514410200953l, rs1.getValue());
+    RandomSeed rs2 = repo.getRandomSeed("Bar", 42, "more test");
+    assertEquals("correct seed value 2", 2904941806851623619l, rs2.getValue());
+  }
+
+  @Test
+  public void testLoadRepoReader ()
+  {
+    try {
+      randomSeedRepo.loadSeeds(new FileReader("src/test/resources/randomSeedTest.state"));
+    }
+    catch (Exception fnf) {
+      fail(fnf.toString());
+    }
+    RandomSeed rs1 = randomSeedRepo.getRandomSeed("Foo", 3, "test");
+    assertEquals("correct seed value 1", -7938709514410200953l, rs1.getValue());
+    RandomSeed rs2 = randomSeedRepo.getRandomSeed("Bar", 42, "more test");
+    assertEquals("correct seed value 2", 2904941806851623619l, rs2.getValue());
+  }
+
+  @Test
+  public void testSeedIndex () throws IOException
+  {
+    randomSeedRepo.loadSeeds(new File("src/test/resources/randomSeedTest.state"));
+    RandomSeed rs1 = randomSeedRepo.getRandomSeed("Foo", 3, "test");
+    RandomSeed rs3 = randomSeedRepo.getRandomSeed("Baz", -36, "third test");
+    File index = File.createTempFile("seeds", ".idx");
+    index.deleteOnExit();
+    randomSeedRepo.saveSeedIndex(index);
+
+    RandomSeedRepo repo = new RandomSeedRepo();
+    repo.loadSeedIndex(index);
+    assertEquals("no seeds yet", 0, repo.size());
+    assertEquals("same seed 1", rs1.getValue(),
+                 repo.getRandomSeed("Foo", 3, "test").getValue());
+    assertEquals("loaded but unused seed", 2904941806851623619l,
+                 repo.getRandomSeed("Bar", 42, "more test").getValue());
+    assertEquals("same seed 3", rs3.getValue(),
+                 repo.getRandomSeed("Baz", -36, "third test").getValue());
+  }
+
+  // a seed without a purpose must not make the index unwritable
+  @Test
+  public void testSeedIndexNullPurpose () throws IOException
+  {
+    RandomSeed plain = randomSeedRepo.getRandomSeed("Foo", 3, null);
+    RandomSeed named = randomSeedRepo.getRandomSeed("Foo", 3, "test");
+    File index = File.createTempFile("seeds", ".idx");
+    index.deleteOnExit();
+    randomSeedRepo.saveSeedIndex(index);
+
+    RandomSeedRepo repo = new RandomSeedRepo();
+    repo.loadSeedIndex(index);
+    assertEquals("null purpose", plain.getValue(),
+                 repo.getRandomSeed("Foo", 3, null).getValue());
+    assertEquals("named purpose", named.getValue(),
+                 repo.getRandomSeed("Foo", 3, "test").getValue());
+  }
+
+  @Test
+  public void testGetRandomStream ()
+  {
+    try {
+      randomSeedRepo.loadSeeds(new File("src/test/resources/randomSeedTest.state"));
+    }
+    catch (Exception fnf) {
+      fail(fnf.toString());
+    }
+    RandomStream stream = randomSeedRepo.getRandomStream("Foo", 3, "test");
+    assertEquals("rooted at replayed seed", -7938709514410200953l,
+                 stream.getOrigin());
+    assertEquals("seed recorded", 1, randomSeedRepo.size());
+    RandomStream again = randomSeedRepo.getRandomStream("Foo", 3, "test");
+    assertEquals("same substream", stream.substream(2).nextLong(),
+                 again.substream(2).nextLong());
+  }
 }
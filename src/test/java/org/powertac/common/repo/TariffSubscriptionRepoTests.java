@@ -18,9 +18,11 @@ import org.powertac.common.Rate;
 import org.powertac.common.Tariff;
 import org.powertac.common.TariffSpecification;
 import org.powertac.common.TariffSubscription;
+import org.powertac.common.TariffTransaction;
 import org.powertac.common.TimeService;
 import org.powertac.common.enumerations.PowerType;
-//import org.powertac.common.interfaces.TariffMarket;
+import org.powertac.common.interfaces.Accounting;
+import org.powertac.common.interfaces.TariffMarket;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
@@ -40,6 +42,9 @@ public class TariffSubscriptionRepoTests
   
   @Autowired
   private TariffRepo mockTariffRepo;
+
+  @Autowired
+  private Accounting mockAccounting;
   
   TariffSubscriptionRepo repo;
   Instant baseTime;
@@ -121,6 +126,41 @@ public class TariffSubscriptionRepoTests
     assertEquals("correct sub 2", sub, subs.get(0));
   }
 
+  @Test
+  public void testGetSubscriptionServices ()
+  {
+    Accounting accounting = mock(Accounting.class);
+    TariffMarket tariffMarket = mock(TariffMarket.class);
+    ReflectionTestUtils.setField(repo, "timeService", timeService);
+    ReflectionTestUtils.setField(repo, "accountingService", accounting);
+    ReflectionTestUtils.setField(repo, "tariffMarketService", tariffMarket);
+    Tariff t1 = new Tariff(ts1);
+    t1.init();
+    TariffSubscription sub = repo.getSubscription(c1, t1);
+    assertSame("time service", timeService,
+               ReflectionTestUtils.getField(sub, "timeService"));
+    assertSame("accounting", accounting,
+               ReflectionTestUtils.getField(sub, "accountingService"));
+    assertSame("tariff market", tariffMarket,
+               ReflectionTestUtils.getField(sub, "tariffMarketService"));
+    sub.subscribe(3);
+    verify(accounting).addTariffTransaction(TariffTransaction.Type.SIGNUP,
+                                            t1, c1, 3, 0.0, -0.0);
+  }
+
+  // services not set on the repo are found in the context
+  @Test
+  public void testGetSubscriptionLookup ()
+  {
+    Tariff t1 = new Tariff(ts1);
+    t1.init();
+    TariffSubscription sub = repo.getSubscription(c1, t1);
+    assertSame("time service", timeService,
+               ReflectionTestUtils.getField(sub, "timeService"));
+    assertSame("accounting", mockAccounting,
+               ReflectionTestUtils.getField(sub, "accountingService"));
+  }
+
   @Test
   public void testFindActiveSubscriptionsForCustomer ()
   {